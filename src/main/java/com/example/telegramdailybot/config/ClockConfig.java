@@ -0,0 +1,16 @@
+package com.example.telegramdailybot.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+
+// The scheduler reads the current time from this clock, so that it can be driven by a virtual clock
+@Configuration
+public class ClockConfig {
+
+    @Bean
+    public Clock clock() {
+        return Clock.systemUTC();
+    }
+}
@@ -34,6 +34,13 @@ public class ExternalPropertiesInitializer
         } catch (IOException e) {
             throw new RuntimeException("Unable to load external application.properties file", e);
         }
+
+        // In webhook mode the bot must not be registered for long polling by the telegrambots starter
+        if (environment.getProperty("telegrambot.webhook.enabled", Boolean.class, false)) {
+            Properties webhookProperties = new Properties();
+            webhookProperties.setProperty("telegrambots.enabled", "false");
+            environment.getPropertySources().addFirst(new PropertiesPropertySource("webhookMode", webhookProperties));
+        }
     }
 
     private Path getJarLocation() {
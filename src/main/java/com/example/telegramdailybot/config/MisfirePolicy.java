@@ -0,0 +1,11 @@
+package com.example.telegramdailybot.config;
+
+// What the scheduler does with a notification that missed its dispatch window, e.g. during downtime
+public enum MisfirePolicy {
+    // Send the notification once and move on to its next occurrence
+    FIRE_ONCE,
+    // Send the notification once for every missed occurrence, up to misfireMaxFires
+    FIRE_ALL,
+    // Do not send anything and move on to the next occurrence
+    SKIP
+}
@@ -0,0 +1,11 @@
+package com.example.telegramdailybot.config;
+
+public enum SchedulerMode {
+    // Due times are kept in the in-memory schedule index, loaded once at startup
+    MEMORY,
+    // Every tick streams the notifications of the current dispatch window from the database
+    DATABASE,
+    // Like DATABASE, but due notifications are claimed in batches with FOR UPDATE SKIP LOCKED,
+    // so several bot instances can share one database without sending a notification twice
+    CLUSTER
+}
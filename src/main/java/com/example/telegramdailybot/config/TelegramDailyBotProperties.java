@@ -5,6 +5,8 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
 
 @Data
 @Component
@@ -13,8 +15,114 @@ public class TelegramDailyBotProperties {
     private String botUsername;
     private String botToken;
     private ZoneId timeZone;
+    private Scheduler scheduler = new Scheduler();
+    private Outbound outbound = new Outbound();
+    private Outbox outbox = new Outbox();
+    private Updates updates = new Updates();
+    private Webhook webhook = new Webhook();
+    private Conversation conversation = new Conversation();
+    private Admission admission = new Admission();
+    private CacheInvalidation cacheInvalidation = new CacheInvalidation();
 
     public void setTimeZone(String timeZone) {
         this.timeZone = ZoneId.of(timeZone);
     }
+
+    @Data
+    public static class Scheduler {
+        private SchedulerMode mode = SchedulerMode.MEMORY;
+        private int claimBatchSize = 50;
+        // Fire each notification at its exact time from a timer (memory mode only); the 60-second tick becomes a catch-up sweep
+        private boolean preciseDispatch = false;
+        private MisfirePolicy misfirePolicy = MisfirePolicy.FIRE_ONCE;
+        private int misfireMaxFires = 10;
+        // Merge the notifications of one chat that fire in the same tick into a single message
+        private boolean coalesceMessages = false;
+    }
+
+    // Telegram's limits for outgoing messages
+    @Data
+    public static class Outbound {
+        private int globalPerSecond = 30;
+        private int privateChatPerSecond = 1;
+        private int groupChatPerMinute = 20;
+        // Requests sent to Telegram concurrently, at most one per chat. Also sizes the bot's executor
+        // (DefaultBotOptions.maxThreads), which actually runs the requests.
+        private int maxInFlight = 8;
+    }
+
+    // Delivery of the messages queued in the outbox table
+    @Data
+    public static class Outbox {
+        private int batchSize = 100;
+        private int maxAttempts = 5;
+        // How long a claimed message is hidden from other relays while it is being sent
+        private int leaseSeconds = 300;
+        private int retentionDays = 7;
+    }
+
+    // Handling of incoming updates
+    @Data
+    public static class Updates {
+        // Number of threads handling updates; the updates of one chat are always handled by the same thread
+        private int partitions = 8;
+    }
+
+    // Receiving updates through a webhook instead of long polling
+    @Data
+    public static class Webhook {
+        private boolean enabled = false;
+        // Public HTTPS base URL of this bot, e.g. https://bot.example.com
+        private String url;
+        private String path = "/telegram/webhook";
+        // Sent back by Telegram in the X-Telegram-Bot-Api-Secret-Token header of every request
+        private String secretToken;
+    }
+
+    // The conversation states of users in a multi-message flow, e.g. adding users
+    @Data
+    public static class Conversation {
+        // memory, or jdbc to share the states between several instances through the database
+        private String store = "memory";
+        // A conversation not continued within this time is forgotten
+        private int ttlMinutes = 30;
+        private int maxEntries = 10000;
+        // jdbc store only: how long a state read from the database is reused without asking it again
+        private int cacheSeconds = 2;
+    }
+
+    // Rate limits of incoming requests, per user and per chat
+    @Data
+    public static class Admission {
+        private boolean enabled = true;
+        // Applies to all commands without their own limit, as well as to callbacks and replies in a conversation
+        private Limit defaults = Limit.of(20, 60, 5);
+        // By command name without the slash, e.g. "next"
+        private Map<String, Limit> commands = new HashMap<>(Map.of(
+                "next", Limit.of(6, 10, 2),
+                "askchatgpt3", Limit.of(2, 5, 1)));
+    }
+
+    // Keeping the in-memory caches of several bot instances sharing one database in sync
+    @Data
+    public static class CacheInvalidation {
+        private boolean enabled = false;
+    }
+
+    // A rate of 0 means unlimited
+    @Data
+    public static class Limit {
+        private int userPerMinute;
+        private int chatPerMinute;
+        // Number of requests allowed in a row before the rate applies
+        private int burst = 1;
+
+        public static Limit of(int userPerMinute, int chatPerMinute, int burst) {
+            Limit limit = new Limit();
+            limit.setUserPerMinute(userPerMinute);
+            limit.setChatPerMinute(chatPerMinute);
+            limit.setBurst(burst);
+            return limit;
+        }
+    }
 }
@@ -0,0 +1,42 @@
+package com.example.telegramdailybot.config;
+
+import com.example.telegramdailybot.TelegramDailyBot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+// Points Telegram at this bot's webhook endpoint once the application, and with it the endpoint, is up
+@Component
+@ConditionalOnProperty(prefix = "telegrambot.webhook", name = "enabled", havingValue = "true")
+public class WebhookRegistrar {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookRegistrar.class);
+    private final TelegramDailyBot telegramDailyBot;
+    private final TelegramDailyBotProperties.Webhook webhook;
+
+    @Autowired
+    public WebhookRegistrar(TelegramDailyBot telegramDailyBot, TelegramDailyBotProperties properties) {
+        this.telegramDailyBot = telegramDailyBot;
+        this.webhook = properties.getWebhook();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerWebhook() {
+        String url = webhook.getUrl().replaceAll("/+$", "") + webhook.getPath();
+        SetWebhook setWebhook = SetWebhook.builder()
+                .url(url)
+                .secretToken(webhook.getSecretToken())
+                .build();
+        try {
+            telegramDailyBot.execute(setWebhook);
+            logger.info("Registered webhook {}", url);
+        } catch (TelegramApiException e) {
+            throw new IllegalStateException("Unable to register webhook " + url, e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.telegramdailybot.controller;
+
+// Who may use a handler registered with the update router
+public enum Access {
+    // Anyone, also in chats not registered with the bot
+    ANY,
+    // Only in chats registered with the bot
+    AUTHORIZED_CHAT,
+    // Only users whose private chat is registered with the admin role
+    ADMIN
+}
@@ -0,0 +1,83 @@
+package com.example.telegramdailybot.controller;
+
+import com.example.telegramdailybot.model.UserActionState;
+import com.example.telegramdailybot.service.ChatGPT3Service;
+import com.example.telegramdailybot.service.ConversationStateStore;
+import com.example.telegramdailybot.service.OutboundMessageDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+
+
+@Controller
+public class BotCommandController {
+    private static final Logger logger = LoggerFactory.getLogger(BotCommandController.class);
+    private final ChatGPT3Service chatGpt3Service;
+    private final OutboundMessageDispatcher outboundMessageDispatcher;
+    private final ConversationStateStore conversationStates;
+
+    @Autowired
+    public BotCommandController(ChatGPT3Service chatGpt3Service, OutboundMessageDispatcher outboundMessageDispatcher,
+                                ConversationStateStore conversationStates) {
+        this.chatGpt3Service = chatGpt3Service;
+        this.outboundMessageDispatcher = outboundMessageDispatcher;
+        this.conversationStates = conversationStates;
+    }
+
+    @CommandMapping(value = "/start", access = Access.ANY)
+    public SendMessage start(Update update) {
+        String welcomeMessage = """
+                🎉 Welcome to AdminNotifier Bot 2.0! 🤖
+
+                🌟 The fastest way to find an admin.. for now. 📅
+
+                🚀 What can we do together:
+                1️⃣ User lottery: choose winners and add new participants 🏆
+                2️⃣ Personalized notifications: create and edit reminders 🔔
+                3️⃣ Smart answers with ChatGPT: ask questions and get detailed answers 🧠💬
+
+                🤩 Enjoy using it! Together we will make your chat more productive and fun! 🎯""";
+
+        return createMessage(update.getMessage().getChatId(), welcomeMessage);
+    }
+
+    @CommandMapping(value = "/getchatid", access = Access.ANY)
+    public SendMessage getChatId(Update update) {
+        Long chatId = update.getMessage().getChatId();
+        return createMessage(chatId, "Your chat ID: " + chatId);
+    }
+
+    @CommandMapping("/askchatgpt3")
+    public SendMessage askChatGPT3(Update update) {
+        conversationStates.put(update.getMessage().getChatId(), update.getMessage().getFrom().getId(), UserActionState.WAITING_FOR_CHATGPT3_QUERY);
+        return createMessage(update.getMessage().getChatId(), "Write your question to ChatGPT3");
+    }
+
+    @StateMapping(UserActionState.WAITING_FOR_CHATGPT3_QUERY)
+    public SendMessage chatGPT3Query(Update update) {
+        Long chatId = update.getMessage().getChatId();
+
+        // End the conversation
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
+
+        // The answer is sent once ChatGPT3 has responded
+        chatGpt3Service.chat(update.getMessage().getText()).thenAccept(responseText ->
+                outboundMessageDispatcher.send(createMessage(chatId, responseText)).exceptionally(e -> {
+                    logger.error("Error sending message to chat: {}", chatId, e);
+                    return null;
+                }));
+        return createMessage(chatId, "Please wait, ChatGPT3 is processing your query...");
+    }
+
+    private static SendMessage createMessage(Long chatId, String text) {
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId.toString());
+        message.setText(text);
+        message.setDisableWebPagePreview(true);
+        return message;
+    }
+}
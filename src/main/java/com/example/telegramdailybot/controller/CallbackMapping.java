@@ -0,0 +1,15 @@
+package com.example.telegramdailybot.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Registers a controller method as the handler of inline keyboard callbacks with the given callback data
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CallbackMapping {
+    String[] value();
+
+    Access access() default Access.ANY;
+}
@@ -3,25 +3,28 @@ package com.example.telegramdailybot.controller;
 import com.example.telegramdailybot.model.Chat;
 import com.example.telegramdailybot.model.UserActionState;
 import com.example.telegramdailybot.service.ChatService;
+import com.example.telegramdailybot.service.ConversationStateStore;
 import com.example.telegramdailybot.util.BotUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
-import java.util.Map;
 import java.util.Optional;
 
 
 @Controller
 public class ChatManagementController {
     private final ChatService chatService;
+    private final ConversationStateStore conversationStates;
 
     @Autowired
-    public ChatManagementController(ChatService chatService) {
+    public ChatManagementController(ChatService chatService, ConversationStateStore conversationStates) {
         this.chatService = chatService;
+        this.conversationStates = conversationStates;
     }
 
+    @CommandMapping("/editchats")
     public SendMessage editChatsMessage(Update update) {
         long chatId = update.getMessage().getChatId();
         boolean isUserChat = update.getMessage().getChat().isUserChat();
@@ -50,12 +53,13 @@ public class ChatManagementController {
     }
 
 
-    public SendMessage addChats(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(value = UserActionState.WAITING_FOR_CHATS_TO_ADD, access = Access.ADMIN)
+    public SendMessage addChats(Update update) {
         String text = update.getMessage().getText();
         chatService.addChatsFromText(text);
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(update.getMessage().getFrom().getId());
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -65,12 +69,13 @@ public class ChatManagementController {
         return message;
     }
 
-    public SendMessage deleteChats(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(value = UserActionState.WAITING_FOR_CHATS_TO_DELETE, access = Access.ADMIN)
+    public SendMessage deleteChats(Update update) {
         String text = update.getMessage().getText();
         chatService.deleteChatsFromText(text);
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(update.getMessage().getFrom().getId());
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -80,12 +85,13 @@ public class ChatManagementController {
         return message;
     }
 
-    public SendMessage editChats(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(value = UserActionState.WAITING_FOR_CHATS_TO_EDIT, access = Access.ADMIN)
+    public SendMessage editChats(Update update) {
         String text = update.getMessage().getText();
         chatService.editChatsFromText(text);
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(update.getMessage().getFrom().getId());
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -95,8 +101,9 @@ public class ChatManagementController {
         return message;
     }
 
-    public SendMessage initiateAddChatsProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_ADD);
+    @CallbackMapping(value = "add_chats", access = Access.ADMIN)
+    public SendMessage initiateAddChatsProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_ADD);
         String text = """
                 Please send, separated by commas: ID, chat name, role. For example:
 
@@ -109,8 +116,9 @@ public class ChatManagementController {
         return message;
     }
 
-    public SendMessage initiateDeleteChatsProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_DELETE);
+    @CallbackMapping(value = "delete_chats", access = Access.ADMIN)
+    public SendMessage initiateDeleteChatsProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_DELETE);
         String text = """
                 Please send the IDs of the chats you want to delete, each ID on a new line. For example:
 
@@ -123,8 +131,9 @@ public class ChatManagementController {
         return message;
     }
 
-    public SendMessage initiateEditChatsProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_EDIT);
+    @CallbackMapping(value = "edit_chats", access = Access.ADMIN)
+    public SendMessage initiateEditChatsProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHATS_TO_EDIT);
         String text = """
                 Please send, separated by commas: ID of the chat you want to change, name, role. For example:
 
@@ -141,6 +150,10 @@ public class ChatManagementController {
         return chatService.existsById(id);
     }
 
+    public boolean existsInDatabase(long id) {
+        return chatService.existsInDatabase(id);
+    }
+
     public Optional<Chat> findById(long chatId) {
         return chatService.findById(chatId);
     }
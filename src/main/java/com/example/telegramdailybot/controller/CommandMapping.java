@@ -0,0 +1,16 @@
+package com.example.telegramdailybot.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Registers a controller method as the handler of one or more bot commands, e.g. "/next".
+// Commands are matched case-insensitively, with an optional "@botname" suffix and arguments ignored.
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CommandMapping {
+    String[] value();
+
+    Access access() default Access.AUTHORIZED_CHAT;
+}
@@ -0,0 +1,81 @@
+package com.example.telegramdailybot.controller;
+
+import java.util.Locale;
+
+// Open-addressing hash table of command handlers. A message text is looked up without allocating:
+// the command is delimited, hashed and compared in place, lower-casing ASCII letters on the fly.
+final class CommandTable<T> {
+    private String[] keys = new String[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    void put(String command, T value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        String key = command.toLowerCase(Locale.ROOT);
+        int end = commandEnd(key);
+        if (end != key.length()) {
+            throw new IllegalArgumentException("Invalid command: " + command);
+        }
+        int i = hash(key, end) & (keys.length - 1);
+        while (keys[i] != null) {
+            if (keys[i].equals(key)) {
+                throw new IllegalStateException("Duplicate handler for command " + command);
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    // Returns the handler of the command at the start of the text, or null if there is none
+    @SuppressWarnings("unchecked")
+    T find(String text) {
+        int end = commandEnd(text);
+        int i = hash(text, end) & (keys.length - 1);
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.length() == end && text.regionMatches(true, 0, key, 0, end)) {
+                return (T) values[i];
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        return null;
+    }
+
+    // The command ends at the "@botname" suffix or at the first whitespace
+    private static int commandEnd(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '@' || Character.isWhitespace(c)) {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    private static int hash(String text, int end) {
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], (T) oldValues[i]);
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.example.telegramdailybot.controller;
 
 import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.model.OutboxMessage;
 import com.example.telegramdailybot.model.UserActionState;
 import com.example.telegramdailybot.service.ChatService;
+import com.example.telegramdailybot.service.ConversationStateStore;
 import com.example.telegramdailybot.service.NotificationService;
 import com.example.telegramdailybot.util.BotUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,23 +13,29 @@ import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 
+import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 
 @Controller
 public class NotificationManagementController {
     private final NotificationService notificationService;
     private final ChatService chatService;
+    private final ConversationStateStore conversationStates;
 
     @Autowired
-    public NotificationManagementController(NotificationService notificationService, ChatService chatService) {
+    public NotificationManagementController(NotificationService notificationService, ChatService chatService, ConversationStateStore conversationStates) {
         this.notificationService = notificationService;
         this.chatService = chatService;
+        this.conversationStates = conversationStates;
     }
 
+    @CommandMapping("/shownotifications")
     public SendMessage showNotifications(Update update) {
         List<String> fieldsToDisplay = Arrays.asList("text", "datetime", "repetition", "datetimexcluded");
         Map<String, String> customHeaders = new HashMap<>();
@@ -41,12 +49,13 @@ public class NotificationManagementController {
         return message;
     }
 
-    public SendMessage editNotificationsMessage(Update update, Map<Long, UserActionState> userActionStates) {
+    @CommandMapping("/editnotifications")
+    public SendMessage editNotificationsMessage(Update update) {
         long chatId = update.getMessage().getChatId();
         boolean isUserChat = update.getMessage().getChat().isUserChat();
         boolean isAdmin = chatService.isAdmin(update.getMessage().getFrom().getId());
         if (isUserChat && isAdmin) {
-            userActionStates.put(chatId, UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_NOTIFICATIONS);
+            conversationStates.put(chatId, update.getMessage().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_NOTIFICATIONS);
             SendMessage message = new SendMessage();
             message.setChatId(chatId);
             message.setText("Enter chat ID to edit notifications:");
@@ -74,11 +83,12 @@ public class NotificationManagementController {
 
     }
 
-    public SendMessage addNotification(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_NOTIFICATION_TO_ADD)
+    public SendMessage addNotification(Update update) {
         String text = notificationService.addNotificationFromText(update.getMessage().getText(), update.getMessage().getChatId());
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(update.getMessage().getFrom().getId());
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
         SendMessage message = new SendMessage();
         message.setChatId(update.getMessage().getChatId());
@@ -86,7 +96,8 @@ public class NotificationManagementController {
         return message;
     }
 
-    public SendMessage deleteNotifications(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_NOTIFICATION_TO_DELETE)
+    public SendMessage deleteNotifications(Update update) {
         String text = update.getMessage().getText();
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
@@ -94,7 +105,7 @@ public class NotificationManagementController {
         notificationService.deleteNotificationsFromText(text, chatId, userId);
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(userId);
+        conversationStates.remove(chatId, userId);
 
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
@@ -102,14 +113,15 @@ public class NotificationManagementController {
         return message;
     }
 
-    public SendMessage editNotification(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_NOTIFICATION_TO_EDIT)
+    public SendMessage editNotification(Update update) {
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
 
         String text = notificationService.editNotificationFromText(update.getMessage().getText(), chatId, userId);
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(userId);
+        conversationStates.remove(chatId, userId);
 
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
@@ -117,13 +129,14 @@ public class NotificationManagementController {
         return message;
     }
 
-    public SendMessage editNotificationsByAdmin(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_NOTIFICATIONS)
+    public SendMessage editNotificationsByAdmin(Update update) {
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
 
         try {
             Long targetChatId = Long.parseLong(update.getMessage().getText());
-            userActionStates.remove(userId);
+            conversationStates.remove(chatId, userId);
 
             List<String> fieldsToDisplay = Arrays.asList("id", "text", "datetime", "repetition", "datetimexcluded");
             Map<String, String> customHeaders = new HashMap<>();
@@ -151,7 +164,8 @@ public class NotificationManagementController {
         }
     }
 
-    public SendMessage addNotificationByAdmin(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_NOTIFICATION)
+    public SendMessage addNotificationByAdmin(Update update) {
         String[] parts = update.getMessage().getText().split("\n", 2);
         try {
             long targetChatId = Long.parseLong(parts[0]);
@@ -159,7 +173,7 @@ public class NotificationManagementController {
             String textMessage = notificationService.addNotificationFromText(parts[1], targetChatId);
 
             // Remove the user from the userAddingStates map
-            userActionStates.remove(update.getMessage().getFrom().getId());
+            conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
             SendMessage message = new SendMessage();
             message.setChatId(update.getMessage().getChatId());
@@ -173,18 +187,19 @@ public class NotificationManagementController {
         }
     }
 
-    public SendMessage initiateAddNotificationProcess(Update update, Map<Long, UserActionState> userActionStates) {
+    @CallbackMapping("add_notification")
+    public SendMessage initiateAddNotificationProcess(Update update) {
         boolean isUserChat = update.getCallbackQuery().getMessage().getChat().isUserChat();
         boolean isAdmin = chatService.isAdmin(update.getCallbackQuery().getFrom().getId());
         if (isUserChat && isAdmin) {
-            userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_NOTIFICATION);
+            conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_NOTIFICATION);
             String text = """
                     In the first line, send the ID of the chat to which you want to add notifications. Next, send a notification according to the following template. For convenience, the template can be copied, pasted and edited.
                                     
                     -1234567890
                     Notification text: Everything is on daily, today it’s fumbling @name, @username!
                     Date and time: 2023-04-06T14:00
-                    Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly}
+                    Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly|cron: 0 30 9 * * MON-FRI}
                     Exceptions:
                       - Exclude Sat and Sun
                       - Exclude days:
@@ -196,7 +211,7 @@ public class NotificationManagementController {
             message.setText(text);
             return message;
         } else {
-            userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_ADD);
+            conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_ADD);
 
             String text = """
                     In the first line, send the ID of the chat to which you want to add notifications. Next, send a notification according to the following template. For convenience, the template can be copied, pasted and edited.
@@ -204,7 +219,7 @@ public class NotificationManagementController {
                     -1234567890
                     Notification text: Everything is on daily, today it’s fumbling @name, @username!
                     Date and time: 2023-04-06T14:00
-                    Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly}
+                    Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly|cron: 0 30 9 * * MON-FRI}
                     Exceptions:
                       - Exclude Sat and Sun
                       - Exclude days:
@@ -218,8 +233,9 @@ public class NotificationManagementController {
         }
     }
 
-    public SendMessage initiateDeleteNotificationsProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_DELETE);
+    @CallbackMapping("delete_notifications")
+    public SendMessage initiateDeleteNotificationsProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_DELETE);
         String text = """
                 Please send the IDs of the notifications you want to delete, each ID on a new line. For example:
 
@@ -232,15 +248,16 @@ public class NotificationManagementController {
         return message;
     }
 
-    public SendMessage initiateEditNotificationProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_EDIT);
+    @CallbackMapping("edit_notification")
+    public SendMessage initiateEditNotificationProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_NOTIFICATION_TO_EDIT);
         String text = """
                 Please send the amended notice according to the following template. For convenience, copy the previous version of the notice and change it
                                 
                 ID: 11
                 Notification text: Everything is on daily, today it’s fumbling @name, @username!
                 Date and time: 2023-04-06T14:00
-                Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly}
+                Frequency: {once|minutely|hourly|daily|weekly|monthly|yearly|cron: 0 30 9 * * MON-FRI}
                 Exceptions:
                   - Exclude Sat and Sun
                   - Exclude days:
@@ -261,6 +278,22 @@ public class NotificationManagementController {
         return notificationService.findAll();
     }
 
+    public List<Notification> findAllById(Iterable<Integer> ids) {
+        return notificationService.findAllById(ids);
+    }
+
+    public Stream<Notification> streamDueWindow(ZonedDateTime from, ZonedDateTime to) {
+        return notificationService.streamDueWindow(from, to);
+    }
+
+    public List<Notification> claimDueWindow(ZonedDateTime afterDatetime, int afterId, ZonedDateTime to, int limit) {
+        return notificationService.claimDueWindow(afterDatetime, afterId, to, limit);
+    }
+
+    public void applyScheduleChanges(Map<Integer, ZonedDateTime> reschedules, Collection<Integer> deletions, List<OutboxMessage> messages) {
+        notificationService.applyScheduleChanges(reschedules, deletions, messages);
+    }
+
     public void delete(Notification notification) {
         notificationService.delete(notification);
     }
@@ -0,0 +1,17 @@
+package com.example.telegramdailybot.controller;
+
+import com.example.telegramdailybot.model.UserActionState;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Registers a controller method as the handler of plain text messages sent by a user in the given action state
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface StateMapping {
+    UserActionState[] value();
+
+    Access access() default Access.ANY;
+}
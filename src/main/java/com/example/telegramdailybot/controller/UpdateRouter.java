@@ -0,0 +1,283 @@
+package com.example.telegramdailybot.controller;
+
+import com.example.telegramdailybot.model.UserActionState;
+import com.example.telegramdailybot.service.AdmissionControl;
+import com.example.telegramdailybot.service.ChatService;
+import com.example.telegramdailybot.service.ConversationStateStore;
+import com.example.telegramdailybot.service.OutboundMessageDispatcher;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.ClassUtils;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Routes incoming updates to the controller methods annotated with @CommandMapping, @CallbackMapping
+// and @StateMapping. The lookup tables are built once at startup from all @Controller beans, so a new
+// command only needs an annotated method. Every handler keeps its own invocation and timing metrics.
+@Component
+public class UpdateRouter {
+    private static final Logger logger = LoggerFactory.getLogger(UpdateRouter.class);
+    private static final String NOT_AUTHORIZED = "You are not authorized to use this bot.";
+    private static final String NOT_ADMIN = "You do not have administrator rights to do this.";
+    private static final String UNKNOWN_COMMAND = "Unknown command. Please use /start or /getchatid to get started.";
+    private static final String NO_STATE = "First, select an option from the menu.(?)";
+    private static final String SLOW_DOWN = "Too many requests, please slow down and try again in a minute.";
+
+    private final ApplicationContext applicationContext;
+    private final ChatService chatService;
+    private final OutboundMessageDispatcher outboundMessageDispatcher;
+    private final ConversationStateStore conversationStates;
+    private final AdmissionControl admissionControl;
+    private final AdmissionControl.Limiter unknownCommandLimiter;
+    private final AdmissionControl.Limiter conversationLimiter;
+
+    private final CommandTable<Handler> commands = new CommandTable<>();
+    private final Map<String, Handler> callbacks = new HashMap<>();
+    private final Map<UserActionState, Handler> states = new EnumMap<>(UserActionState.class);
+    private final List<Handler> handlers = new ArrayList<>();
+
+    @Autowired
+    public UpdateRouter(ApplicationContext applicationContext, ChatService chatService,
+                        OutboundMessageDispatcher outboundMessageDispatcher, ConversationStateStore conversationStates,
+                        AdmissionControl admissionControl) {
+        this.applicationContext = applicationContext;
+        this.chatService = chatService;
+        this.outboundMessageDispatcher = outboundMessageDispatcher;
+        this.conversationStates = conversationStates;
+        this.admissionControl = admissionControl;
+        this.unknownCommandLimiter = admissionControl.limiterFor("unknown command");
+        this.conversationLimiter = admissionControl.limiterFor("conversation");
+    }
+
+    // Only controllers that actually declare handlers are instantiated here, so that a controller
+    // depending on the bot (like the webhook endpoint) doesn't create a dependency cycle
+    @PostConstruct
+    public void registerHandlers() {
+        for (String beanName : applicationContext.getBeanNamesForAnnotation(Controller.class)) {
+            Class<?> type = ClassUtils.getUserClass(applicationContext.getType(beanName));
+            for (Method method : type.getMethods()) {
+                CommandMapping command = method.getAnnotation(CommandMapping.class);
+                CallbackMapping callback = method.getAnnotation(CallbackMapping.class);
+                StateMapping state = method.getAnnotation(StateMapping.class);
+                if (command != null) {
+                    Handler handler = createHandler(beanName, method, command.value()[0], command.access());
+                    for (String name : command.value()) {
+                        commands.put(name, handler);
+                    }
+                }
+                if (callback != null) {
+                    Handler handler = createHandler(beanName, method, "callback " + callback.value()[0], callback.access());
+                    for (String data : callback.value()) {
+                        if (callbacks.put(data, handler) != null) {
+                            throw new IllegalStateException("Duplicate handler for callback " + data);
+                        }
+                    }
+                }
+                if (state != null) {
+                    Handler handler = createHandler(beanName, method, "state " + state.value()[0], state.access());
+                    for (UserActionState userActionState : state.value()) {
+                        if (states.put(userActionState, handler) != null) {
+                            throw new IllegalStateException("Duplicate handler for state " + userActionState);
+                        }
+                    }
+                }
+            }
+        }
+        logger.info("Registered {} update handlers", handlers.size());
+    }
+
+    public void route(Update update) {
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            Message message = update.getMessage();
+            if (message.isCommand()) {
+                routeCommand(update, message);
+            } else {
+                routeText(update, message);
+            }
+        } else if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            Handler handler = callbacks.get(update.getCallbackQuery().getData());
+            Long chatId = update.getCallbackQuery().getMessage().getChatId();
+            Long userId = update.getCallbackQuery().getFrom().getId();
+            if (handler != null && admit(handler.limiter, chatId, userId) && isAllowed(handler.access, chatId, userId)) {
+                handler.invoke(update);
+            }
+        }
+    }
+
+    private void routeCommand(Update update, Message message) {
+        Handler handler = commands.find(message.getText());
+        if (!admit(handler != null ? handler.limiter : unknownCommandLimiter, message.getChatId(), message.getFrom().getId())) {
+            return;
+        }
+        Access access = handler != null ? handler.access : Access.AUTHORIZED_CHAT;
+        if (!isAllowed(access, message.getChatId(), message.getFrom().getId())) {
+            return;
+        }
+        if (handler == null) {
+            send(message.getChatId(), UNKNOWN_COMMAND);
+            return;
+        }
+        handler.invoke(update);
+    }
+
+    private void routeText(Update update, Message message) {
+        Long userId = message.getFrom().getId();
+        if (!admit(conversationLimiter, message.getChatId(), userId)) {
+            return;
+        }
+        UserActionState userActionState = conversationStates.get(message.getChatId(), userId);
+        Handler handler = userActionState != null ? states.get(userActionState) : null;
+        if (handler == null) {
+            logger.warn("No handler for the action state {} of user {}", userActionState, userId);
+            send(message.getChatId(), NO_STATE);
+            return;
+        }
+        if (isAllowed(handler.access, message.getChatId(), userId)) {
+            handler.invoke(update);
+        }
+    }
+
+    // Applies the rate limits before anything else touches the database, telling the user to slow down now and then
+    private boolean admit(AdmissionControl.Limiter limiter, Long chatId, Long userId) {
+        if (limiter.tryAcquire(chatId, userId)) {
+            return true;
+        }
+        if (admissionControl.shouldNotify(userId)) {
+            send(chatId, SLOW_DOWN);
+        }
+        return false;
+    }
+
+    // Checks the access requirement of a handler, answering in the chat when it isn't met
+    private boolean isAllowed(Access access, Long chatId, Long userId) {
+        switch (access) {
+            case AUTHORIZED_CHAT -> {
+                if (!chatService.existsById(chatId)) {
+                    send(chatId, NOT_AUTHORIZED);
+                    return false;
+                }
+            }
+            case ADMIN -> {
+                if (!chatService.isAdmin(userId)) {
+                    send(chatId, NOT_ADMIN);
+                    return false;
+                }
+            }
+            case ANY -> {
+            }
+        }
+        return true;
+    }
+
+    public List<HandlerStats> getStats() {
+        return handlers.stream().map(Handler::stats).toList();
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void reportStats() {
+        if (logger.isDebugEnabled()) {
+            getStats().stream()
+                    .filter(stats -> stats.invocations() > 0)
+                    .forEach(stats -> logger.debug("Handler {}: {} invocations, {} errors, avg {} ms, max {} ms",
+                            stats.name(), stats.invocations(), stats.errors(), stats.averageMillis(), stats.maxMillis()));
+        }
+    }
+
+    private Handler createHandler(String beanName, Method method, String name, Access access) {
+        if (method.getParameterCount() != 1 || method.getParameterTypes()[0] != Update.class) {
+            throw new IllegalStateException("Handler " + method + " must take the Update as its only parameter");
+        }
+        if (method.getReturnType() != SendMessage.class && method.getReturnType() != void.class) {
+            throw new IllegalStateException("Handler " + method + " must return SendMessage or void");
+        }
+        String limitName = name.startsWith("/") ? name.substring(1).toLowerCase(Locale.ROOT) : name;
+        Handler handler = new Handler(name, applicationContext.getBean(beanName), method, access,
+                admissionControl.limiterFor(limitName));
+        handlers.add(handler);
+        return handler;
+    }
+
+    private void send(Long chatId, String text) {
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId.toString());
+        message.setText(text);
+        message.setDisableWebPagePreview(true);
+        send(message);
+    }
+
+    private void send(SendMessage message) {
+        outboundMessageDispatcher.send(message).exceptionally(e -> {
+            logger.error("Error sending message to chat: {}", message.getChatId(), e);
+            return null;
+        });
+    }
+
+    public record HandlerStats(String name, long invocations, long errors, long averageMillis, long maxMillis) {
+    }
+
+    private class Handler {
+        private final String name;
+        private final Object bean;
+        private final Method method;
+        private final Access access;
+        private final AdmissionControl.Limiter limiter;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        Handler(String name, Object bean, Method method, Access access, AdmissionControl.Limiter limiter) {
+            this.name = name;
+            this.bean = bean;
+            this.method = method;
+            this.access = access;
+            this.limiter = limiter;
+        }
+
+        void invoke(Update update) {
+            long start = System.nanoTime();
+            try {
+                if (method.invoke(bean, update) instanceof SendMessage message) {
+                    send(message);
+                }
+            } catch (InvocationTargetException e) {
+                errors.increment();
+                logger.error("Error handling {}", name, e.getCause());
+            } catch (IllegalAccessException e) {
+                errors.increment();
+                logger.error("Cannot invoke handler {}", name, e);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                invocations.increment();
+                totalNanos.add(elapsed);
+                maxNanos.accumulate(elapsed);
+            }
+        }
+
+        HandlerStats stats() {
+            long count = invocations.sum();
+            return new HandlerStats(name, count, errors.sum(),
+                    count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count),
+                    TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        }
+    }
+}
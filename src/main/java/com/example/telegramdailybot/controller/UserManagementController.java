@@ -3,6 +3,7 @@ package com.example.telegramdailybot.controller;
 import com.example.telegramdailybot.model.User;
 import com.example.telegramdailybot.model.UserActionState;
 import com.example.telegramdailybot.service.ChatService;
+import com.example.telegramdailybot.service.ConversationStateStore;
 import com.example.telegramdailybot.service.UserService;
 import com.example.telegramdailybot.util.BotUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,13 +23,16 @@ public class UserManagementController {
 
     private final UserService userService;
     private final ChatService chatService;
+    private final ConversationStateStore conversationStates;
 
     @Autowired
-    public UserManagementController(UserService userService, ChatService chatService) {
+    public UserManagementController(UserService userService, ChatService chatService, ConversationStateStore conversationStates) {
         this.userService = userService;
         this.chatService = chatService;
+        this.conversationStates = conversationStates;
     }
 
+    @CommandMapping("/resetwinners")
     public SendMessage resetWinners(Update update) {
         userService.resetWinners(update.getMessage().getChatId());
         SendMessage message = new SendMessage();
@@ -37,6 +41,7 @@ public class UserManagementController {
         return message;
     }
 
+    @CommandMapping("/showusers")
     public SendMessage showUsers(Update update) {
         List<String> fieldsToDisplay = Arrays.asList("name", "username", "haswon");
         Map<String, String> customHeaders = new HashMap<>();
@@ -48,6 +53,7 @@ public class UserManagementController {
         return message;
     }
 
+    @CommandMapping("/next")
     public SendMessage nextWinner(Update update) {
 
         User winner = findWinner(update.getMessage().getChatId());
@@ -68,12 +74,13 @@ public class UserManagementController {
     }
 
 
-    public SendMessage editUsersMessage(Update update, Map<Long, UserActionState> userActionStates) {
+    @CommandMapping("/editusers")
+    public SendMessage editUsersMessage(Update update) {
         long chatId = update.getMessage().getChatId();
         boolean isUserChat = update.getMessage().getChat().isUserChat();
         boolean isAdmin = chatService.isAdmin(update.getMessage().getFrom().getId());
         if (isUserChat && isAdmin) {
-            userActionStates.put(chatId, UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_USERS);
+            conversationStates.put(chatId, update.getMessage().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_USERS);
             SendMessage message = new SendMessage();
             message.setChatId(chatId);
             message.setText("Enter chat ID to edit users:");
@@ -96,13 +103,14 @@ public class UserManagementController {
     }
 
 
-    public SendMessage addUsers(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_USERS_TO_ADD)
+    public SendMessage addUsers(Update update) {
         // Parse and add users from the message text
         String text = update.getMessage().getText();
         userService.addUsersFromText(text, update.getMessage().getChatId());
 
         // Remove the user from the userAddingStates map
-        userActionStates.remove(update.getMessage().getFrom().getId());
+        conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -112,7 +120,8 @@ public class UserManagementController {
         return message;
     }
 
-    public SendMessage deleteUsers(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_USERS_TO_DELETE)
+    public SendMessage deleteUsers(Update update) {
         String text = update.getMessage().getText();
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
@@ -120,7 +129,7 @@ public class UserManagementController {
         userService.deleteUsersFromText(text, chatId, userId);
 
         // Remove the user from the userDeletingStates map
-        userActionStates.remove(userId);
+        conversationStates.remove(chatId, userId);
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -130,7 +139,8 @@ public class UserManagementController {
         return message;
     }
 
-    public SendMessage editUsers(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_USERS_TO_EDIT)
+    public SendMessage editUsers(Update update) {
         String text = update.getMessage().getText();
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
@@ -138,7 +148,7 @@ public class UserManagementController {
         userService.editUsersFromText(text, chatId, userId);
 
         // Remove the user from the userDeletingStates map
-        userActionStates.remove(userId);
+        conversationStates.remove(chatId, userId);
 
         // Send a confirmation message to the user
         SendMessage message = new SendMessage();
@@ -148,13 +158,14 @@ public class UserManagementController {
         return message;
     }
 
-    public SendMessage editUsersByAdmin(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_CHAT_ID_TO_EDIT_USERS)
+    public SendMessage editUsersByAdmin(Update update) {
         long chatId = update.getMessage().getChatId();
         long userId = update.getMessage().getFrom().getId();
 
         try {
             Long targetChatId = Long.parseLong(update.getMessage().getText());
-            userActionStates.remove(userId);
+            conversationStates.remove(chatId, userId);
 
             List<String> fieldsToDisplay = Arrays.asList("id", "name", "username", "haswon");
             Map<String, String> customHeaders = new HashMap<>();
@@ -178,7 +189,8 @@ public class UserManagementController {
         }
     }
 
-    public SendMessage addUsersByAdmin(Update update, Map<Long, UserActionState> userActionStates) {
+    @StateMapping(UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_USERS)
+    public SendMessage addUsersByAdmin(Update update) {
         // Parse and add users from the message text
         String[] parts = update.getMessage().getText().split("\n", 2);
         try {
@@ -188,7 +200,7 @@ public class UserManagementController {
             userService.addUsersFromText(text, targetChatId);
 
             // Remove the user from the userAddingStates map
-            userActionStates.remove(update.getMessage().getFrom().getId());
+            conversationStates.remove(update.getMessage().getChatId(), update.getMessage().getFrom().getId());
 
             // Send a confirmation message to the user
             SendMessage message = new SendMessage();
@@ -204,11 +216,12 @@ public class UserManagementController {
         }
     }
 
-    public SendMessage initiateAddUsersProcess(Update update, Map<Long, UserActionState> userActionStates) {
+    @CallbackMapping("add_users")
+    public SendMessage initiateAddUsersProcess(Update update) {
         boolean isUserChat = update.getCallbackQuery().getMessage().getChat().isUserChat();
         boolean isAdmin = chatService.isAdmin(update.getCallbackQuery().getFrom().getId());
         if (isUserChat && isAdmin) {
-            userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_USERS);
+            conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_CHAT_ID_TO_ADD_USERS);
             String text = """
                     In the first line, send the ID of the chat to which you want to add participants. Next, send from new lines, separated by commas: name, @username. For example:
                                         
@@ -221,7 +234,7 @@ public class UserManagementController {
             message.setText(text);
             return message;
         } else {
-            userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_ADD);
+            conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_ADD);
             String text = """
                     Please send, separated by commas: name, @username. For example:
 
@@ -235,8 +248,9 @@ public class UserManagementController {
         }
     }
 
-    public SendMessage initiateDeleteUsersProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_DELETE);
+    @CallbackMapping("delete_users")
+    public SendMessage initiateDeleteUsersProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_DELETE);
         String text = """
                 Please send the IDs of the members you want to remove, each ID on a new line. For example:
 
@@ -249,8 +263,9 @@ public class UserManagementController {
         return message;
     }
 
-    public SendMessage initiateEditUsersProcess(Update update, Map<Long, UserActionState> userActionStates) {
-        userActionStates.put(update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_EDIT);
+    @CallbackMapping("edit_users")
+    public SendMessage initiateEditUsersProcess(Update update) {
+        conversationStates.put(update.getCallbackQuery().getMessage().getChatId(), update.getCallbackQuery().getFrom().getId(), UserActionState.WAITING_FOR_USERS_TO_EDIT);
         String text = """
                 Please send, separated by commas: ID of the participant you want to change, name, username. For example:
 
@@ -0,0 +1,48 @@
+package com.example.telegramdailybot.controller;
+
+import com.example.telegramdailybot.TelegramDailyBot;
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// Receives the updates Telegram pushes in webhook mode and hands them to the bot's usual update handling.
+// A recorded Update JSON can be replayed locally by POSTing it here with the secret token header.
+@RestController
+@ConditionalOnProperty(prefix = "telegrambot.webhook", name = "enabled", havingValue = "true")
+public class WebhookController {
+    private static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private final TelegramDailyBot telegramDailyBot;
+    private final byte[] secretToken;
+
+    @Autowired
+    public WebhookController(TelegramDailyBot telegramDailyBot, TelegramDailyBotProperties properties) {
+        this.telegramDailyBot = telegramDailyBot;
+        String token = properties.getWebhook().getSecretToken();
+        if (token == null || token.isBlank()) {
+            throw new IllegalStateException("telegrambot.webhook.secretToken must be set in webhook mode");
+        }
+        this.secretToken = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("${telegrambot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(@RequestHeader(value = SECRET_TOKEN_HEADER, required = false) String token,
+                                         @RequestBody Update update) {
+        // Constant-time comparison, so the token can't be guessed from response times
+        if (token == null || !MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        // The update is only queued here, so Telegram gets its answer right away
+        telegramDailyBot.onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+}
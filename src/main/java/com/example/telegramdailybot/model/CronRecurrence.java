@@ -0,0 +1,48 @@
+package com.example.telegramdailybot.model;
+
+import org.springframework.scheduling.support.CronExpression;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A repetition written as "cron: <expression>", for example "cron: 0 30 9 * * MON-FRI" (weekdays at 09:30)
+// or "cron: */15 9-17 * * *" (every 15 minutes between 9:00 and 17:45). Both the six-field Spring format
+// and the classic five-field format without seconds are accepted.
+public record CronRecurrence(CronExpression expression, ZoneId zone) implements Recurrence {
+    private static final String PREFIX = "cron:";
+    // Parsed expressions by their repetition string, so every distinct schedule is parsed only once
+    private static final Map<String, CronExpression> EXPRESSIONS = new ConcurrentHashMap<>();
+
+    public static boolean isCron(String repetition) {
+        return repetition != null && repetition.regionMatches(true, 0, PREFIX, 0, PREFIX.length());
+    }
+
+    public static CronRecurrence parse(String repetition, ZoneId zone) {
+        CronExpression expression = EXPRESSIONS.computeIfAbsent(repetition, key -> {
+            String fields = key.substring(PREFIX.length()).trim();
+            if (fields.split("\\s+").length == 5) {
+                fields = "0 " + fields;
+            }
+            return CronExpression.parse(fields);
+        });
+        return new CronRecurrence(expression, zone);
+    }
+
+    @Override
+    public ZonedDateTime nextAfter(ZonedDateTime datetime, ZonedDateTime after) {
+        return expression.next(after.withZoneSameInstant(zone));
+    }
+
+    @Override
+    public long occurrencesUntil(ZonedDateTime datetime, ZonedDateTime until, long limit) {
+        long count = 0;
+        ZonedDateTime next = datetime;
+        while (next != null && !next.isAfter(until) && count < limit) {
+            count++;
+            next = nextAfter(datetime, next);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.telegramdailybot.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+// Immutable, compiled form of a notification's "datetimexcluded" configuration.
+// Checking a day against the rules is pure arithmetic on epoch days.
+public final class ExclusionRules {
+    public static final ExclusionRules NONE = new ExclusionRules(false, new long[0], new int[0]);
+
+    private final boolean weekends;
+    private final long[] anchorDays;
+    private final int[] frequencies;
+
+    private ExclusionRules(boolean weekends, long[] anchorDays, int[] frequencies) {
+        this.weekends = weekends;
+        this.anchorDays = anchorDays;
+        this.frequencies = frequencies;
+    }
+
+    public static ExclusionRules compile(JsonNode datetimexcluded) {
+        if (datetimexcluded == null) {
+            return NONE;
+        }
+        boolean weekends = datetimexcluded.path("weekends").asBoolean(false);
+        JsonNode skipDays = datetimexcluded.path("skip_days");
+        long[] anchorDays = new long[skipDays.size()];
+        int[] frequencies = new int[skipDays.size()];
+        int count = 0;
+        for (JsonNode skipDay : skipDays) {
+            try {
+                anchorDays[count] = LocalDate.parse(skipDay.path("day").asText()).toEpochDay();
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            frequencies[count] = skipDay.path("frequency").asInt();
+            count++;
+        }
+        if (count < anchorDays.length) {
+            anchorDays = Arrays.copyOf(anchorDays, count);
+            frequencies = Arrays.copyOf(frequencies, count);
+        }
+        return new ExclusionRules(weekends, anchorDays, frequencies);
+    }
+
+    // Checks whether the given local calendar day (as returned by LocalDate.toEpochDay()) is excluded
+    public boolean isExcluded(long epochDay) {
+        // 1970-01-01 was a Thursday, so this yields 0 for Monday through 6 for Sunday
+        if (weekends && Math.floorMod(epochDay + 3, 7) >= 5) {
+            return true;
+        }
+        // A skip day repeats every "frequency" days starting from its anchor day
+        for (int i = 0; i < anchorDays.length; i++) {
+            long daysSinceAnchor = epochDay - anchorDays[i];
+            if (daysSinceAnchor == 0
+                    || (daysSinceAnchor > 0 && frequencies[i] > 0 && daysSinceAnchor % frequencies[i] == 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
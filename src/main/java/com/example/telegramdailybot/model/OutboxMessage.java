@@ -0,0 +1,46 @@
+package com.example.telegramdailybot.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.ZonedDateTime;
+
+@Data
+@Entity
+@Table(name = "outbox")
+public class OutboxMessage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Telegram chat ID, deliberately without a foreign key so that queued messages survive chat deletion
+    @Column(name = "chatid")
+    private Long chatid;
+
+    @Column(name = "text", length = 4096)
+    private String text;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private OutboxStatus status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    // While a message is being delivered, this is the end of its lease
+    @Column(name = "next_attempt_at")
+    private ZonedDateTime nextAttemptAt;
+
+    // Scheduled time of the notification that produced the message, used to measure the delivery lag
+    @Column(name = "due_at")
+    private ZonedDateTime dueAt;
+
+    @Column(name = "created_at")
+    private ZonedDateTime createdAt;
+
+    @Column(name = "sent_at")
+    private ZonedDateTime sentAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+}
@@ -0,0 +1,7 @@
+package com.example.telegramdailybot.model;
+
+public enum OutboxStatus {
+    PENDING,
+    SENT,
+    FAILED
+}
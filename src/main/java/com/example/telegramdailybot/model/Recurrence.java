@@ -0,0 +1,24 @@
+package com.example.telegramdailybot.model;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+// How a notification repeats, as stored in Notification.repetition
+public interface Recurrence {
+
+    // Returns the first occurrence strictly after "after", or null if there is none
+    ZonedDateTime nextAfter(ZonedDateTime datetime, ZonedDateTime after);
+
+    // Returns the number of occurrences from datetime up to and including "until", at most "limit"
+    long occurrencesUntil(ZonedDateTime datetime, ZonedDateTime until, long limit);
+
+    // Parses either one of the fixed repetitions or a "cron: ..." schedule evaluated in the given zone.
+    // Throws IllegalArgumentException for an invalid cron expression.
+    static Optional<Recurrence> parse(String repetition, ZoneId zone) {
+        if (CronRecurrence.isCron(repetition)) {
+            return Optional.of(CronRecurrence.parse(repetition, zone));
+        }
+        return Repetition.fromString(repetition).map(Recurrence.class::cast);
+    }
+}
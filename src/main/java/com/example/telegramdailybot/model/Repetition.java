@@ -0,0 +1,65 @@
+package com.example.telegramdailybot.model;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+public enum Repetition implements Recurrence {
+    ONCE("once", ChronoUnit.FOREVER, 0),
+    MINUTELY("minutely", ChronoUnit.MINUTES, 5),
+    HOURLY("hourly", ChronoUnit.HOURS, 1),
+    DAILY("daily", ChronoUnit.DAYS, 1),
+    WEEKLY("weekly", ChronoUnit.WEEKS, 1),
+    MONTHLY("monthly", ChronoUnit.MONTHS, 1),
+    YEARLY("yearly", ChronoUnit.YEARS, 1);
+
+    private final String value;
+    private final ChronoUnit unit;
+    private final long amount;
+
+    Repetition(String value, ChronoUnit unit, long amount) {
+        this.value = value;
+        this.unit = unit;
+        this.amount = amount;
+    }
+
+    public static Optional<Repetition> fromString(String value) {
+        for (Repetition repetition : values()) {
+            if (repetition.value.equalsIgnoreCase(value)) {
+                return Optional.of(repetition);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Jumps over all missed occurrences at once
+    @Override
+    public ZonedDateTime nextAfter(ZonedDateTime datetime, ZonedDateTime after) {
+        if (this == ONCE || datetime.isAfter(after)) {
+            return datetime;
+        }
+        long steps = unit.between(datetime, after) / amount + 1;
+        ZonedDateTime next = datetime.plus(steps * amount, unit);
+        // unit.between() rounds down, and month lengths vary, so at most a step or two is left to correct
+        while (!next.isAfter(after)) {
+            next = next.plus(amount, unit);
+        }
+        return next;
+    }
+
+    @Override
+    public long occurrencesUntil(ZonedDateTime datetime, ZonedDateTime until, long limit) {
+        if (datetime.isAfter(until)) {
+            return 0;
+        }
+        if (this == ONCE) {
+            return 1;
+        }
+        return Math.min(unit.between(datetime, until) / amount + 1, limit);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -22,4 +22,8 @@ public class User {
 
     @Column(name = "haswon")
     private boolean haswon;
+
+    // Incremented by every change, including the draws made by UserRepository.drawWinner
+    @Version
+    private Integer version;
 }
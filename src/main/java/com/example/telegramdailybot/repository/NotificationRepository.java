@@ -1,12 +1,39 @@
 package com.example.telegramdailybot.repository;
 
 import com.example.telegramdailybot.model.Notification;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface NotificationRepository extends JpaRepository<Notification, Integer> {
     List<Notification> findByChatid(Long chatid);
-}
\ No newline at end of file
+
+    // Notifications scheduled in (from, to], backed by the notifications_datetime_idx index.
+    // Must be consumed inside a transaction so that the fetch size is honoured by the driver.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "100"))
+    @Query("select n from Notification n where n.datetime > :from and n.datetime <= :to order by n.datetime")
+    Stream<Notification> streamByDatetimeWindow(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    // Locks the next batch of due notifications after the (afterDatetime, afterId) cursor. Rows locked by
+    // another instance are skipped, so concurrent schedulers never claim the same notification.
+    @Query(value = """
+            SELECT * FROM notifications
+            WHERE datetime <= :to
+              AND (datetime > :afterDatetime OR (datetime = :afterDatetime AND id > :afterId))
+            ORDER BY datetime, id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED""", nativeQuery = true)
+    List<Notification> claimDueWindow(@Param("afterDatetime") ZonedDateTime afterDatetime,
+                                      @Param("afterId") int afterId,
+                                      @Param("to") ZonedDateTime to,
+                                      @Param("limit") int limit);
+}
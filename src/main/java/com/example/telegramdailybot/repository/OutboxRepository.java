@@ -0,0 +1,35 @@
+package com.example.telegramdailybot.repository;
+
+import com.example.telegramdailybot.model.OutboxMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxRepository extends JpaRepository<OutboxMessage, Long> {
+
+    // Locks the oldest pending messages that are due, skipping those locked by another relay
+    @Query(value = """
+            SELECT * FROM outbox
+            WHERE status = 'PENDING' AND next_attempt_at <= :now
+            ORDER BY id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED""", nativeQuery = true)
+    List<OutboxMessage> claimPending(@Param("now") ZonedDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("update OutboxMessage m set m.nextAttemptAt = :leaseUntil where m.id in :ids")
+    void lease(@Param("ids") Collection<Long> ids, @Param("leaseUntil") ZonedDateTime leaseUntil);
+
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxMessage m where m.status = com.example.telegramdailybot.model.OutboxStatus.SENT and m.sentAt < :before")
+    int deleteSentBefore(@Param("before") ZonedDateTime before);
+}
@@ -2,12 +2,52 @@ package com.example.telegramdailybot.repository;
 
 import com.example.telegramdailybot.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Integer> {
     List<User> findByChatid(Long chatid);
 
+    boolean existsByChatid(Long chatid);
+
+    @Modifying
+    @Query("update User u set u.haswon = false, u.version = u.version + 1 where u.chatid = :chatId and u.haswon = true")
+    int resetWinners(@Param("chatId") long chatId);
+
+    // Deletes the given users, unless they belong to another chat and the request doesn't come from an admin
+    @Modifying
+    @Query("delete from User u where u.id in :ids and (:admin = true or u.chatid = :chatId)")
+    int deleteOwned(@Param("ids") Collection<Integer> ids, @Param("chatId") long chatId, @Param("admin") boolean admin);
+
+    // Draws a random user of the chat who hasn't won yet and marks them as the winner, in one statement.
+    // When everybody has won, the draw is made among all users and everybody else is reset in the same
+    // statement, which starts a new round. Only the winner's row is returned.
+    // Rows are only updated if their version is still the one the draw was based on. When a concurrent
+    // transaction changed the winner's row in the meantime, nothing is returned and the draw has to be repeated.
+    @Query(value = """
+            WITH chat_users AS (
+                SELECT id, version, haswon FROM users WHERE chatid = :chatId
+            ), candidates AS (
+                SELECT id FROM chat_users WHERE haswon IS NOT TRUE
+            ), winner AS (
+                SELECT id FROM chat_users
+                WHERE haswon IS NOT TRUE OR NOT EXISTS (SELECT 1 FROM candidates)
+                ORDER BY random()
+                LIMIT 1
+            ), drawn AS (
+                UPDATE users u SET haswon = (u.id = w.id), version = u.version + 1
+                FROM chat_users c, winner w
+                WHERE u.id = c.id AND u.version = c.version
+                  AND (u.id = w.id OR NOT EXISTS (SELECT 1 FROM candidates))
+                RETURNING u.*
+            )
+            SELECT * FROM drawn WHERE haswon""", nativeQuery = true)
+    Optional<User> drawWinner(@Param("chatId") long chatId);
 }
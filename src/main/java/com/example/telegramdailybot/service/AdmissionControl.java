@@ -0,0 +1,135 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Rate limits incoming commands per user and per chat, so that spamming e.g. /next or /askchatgpt3 is shed
+// before it reaches the database, OpenAI or the outbound queue. Every limit is a lock-free GCRA bucket
+// (generic cell rate algorithm): one atomic "theoretical arrival time" per user or chat, advanced with CAS.
+@Component
+public class AdmissionControl {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+    private final TelegramDailyBotProperties.Admission settings;
+    private final List<Limiter> limiters = new CopyOnWriteArrayList<>();
+    // Users are told to slow down at most twice a minute, so the notices can't become spam themselves
+    private final Bucket notices = new Bucket(2, 1);
+
+    @Autowired
+    public AdmissionControl(TelegramDailyBotProperties properties) {
+        this.settings = properties.getAdmission();
+    }
+
+    // Returns the limiter for the given command (without the leading slash), or the default limiter
+    public Limiter limiterFor(String command) {
+        TelegramDailyBotProperties.Limit limit = settings.getCommands().getOrDefault(command, settings.getDefaults());
+        Limiter limiter = new Limiter(command, limit);
+        limiters.add(limiter);
+        return limiter;
+    }
+
+    // Whether a rejected user should be sent a notice
+    public boolean shouldNotify(long userId) {
+        return notices.tryAcquire(userId, System.nanoTime());
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void sweep() {
+        long now = System.nanoTime();
+        notices.sweep(now);
+        for (Limiter limiter : limiters) {
+            limiter.perUser.sweep(now);
+            limiter.perChat.sweep(now);
+            long rejected = limiter.rejected.sumThenReset();
+            if (rejected > 0) {
+                logger.info("Rejected {} requests for {} in the last minute", rejected, limiter.name);
+            }
+        }
+    }
+
+    public final class Limiter {
+        private final String name;
+        private final Bucket perUser;
+        private final Bucket perChat;
+        private final LongAdder rejected = new LongAdder();
+
+        private Limiter(String name, TelegramDailyBotProperties.Limit limit) {
+            this.name = name;
+            this.perUser = new Bucket(limit.getUserPerMinute(), limit.getBurst());
+            this.perChat = new Bucket(limit.getChatPerMinute(), limit.getBurst());
+        }
+
+        public boolean tryAcquire(long chatId, long userId) {
+            if (!settings.isEnabled()) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (perUser.tryAcquire(userId, now)) {
+                if (perChat.tryAcquire(chatId, now)) {
+                    return true;
+                }
+                // Rejected by the chat limit, so the request doesn't count against the user
+                perUser.refund(userId);
+            }
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private static final class Bucket {
+        // Time between two requests at the sustained rate; 0 means unlimited
+        private final long intervalNanos;
+        // How far the arrival time may run ahead of now, which allows bursts of the given size
+        private final long toleranceNanos;
+        private final Map<Long, AtomicLong> arrivals = new ConcurrentHashMap<>();
+
+        Bucket(int perMinute, int burst) {
+            this.intervalNanos = perMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / perMinute : 0;
+            this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        }
+
+        boolean tryAcquire(long key, long now) {
+            if (intervalNanos == 0) {
+                return true;
+            }
+            AtomicLong arrival = arrivals.get(key);
+            if (arrival == null) {
+                arrival = arrivals.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+            while (true) {
+                long current = arrival.get();
+                long start = current - now > 0 ? current : now;
+                if (start - now > toleranceNanos) {
+                    return false;
+                }
+                if (arrival.compareAndSet(current, start + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        // Gives back a request taken by tryAcquire
+        void refund(long key) {
+            AtomicLong arrival = arrivals.get(key);
+            if (intervalNanos > 0 && arrival != null) {
+                arrival.addAndGet(-intervalNanos);
+            }
+        }
+
+        // Buckets whose arrival time has passed are full again and can be dropped
+        void sweep(long now) {
+            arrivals.values().removeIf(arrival -> arrival.get() - now < 0);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Tells the other bot instances which cached entries changed, through Postgres NOTIFY on the "cache_invalidation"
+// channel. A notification is sent from within the writing transaction, so Postgres only delivers it once that
+// transaction commits. Every instance listens on a dedicated connection and hands the changed keys to the
+// subscribers of the topic. After the listener had to reconnect, notifications may have been missed, so the
+// subscribers are asked to reload everything instead.
+@Component
+public class CacheInvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidationBus.class);
+    public static final String CHAT = "chat";
+    public static final String NOTIFICATION = "notification";
+    public static final String CONVERSATION = "conversation";
+    static final String CHANNEL = "cache_invalidation";
+    // Postgres limits a payload to 8000 bytes
+    private static final int MAX_PAYLOAD = 7000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final boolean enabled;
+    // Identifies this instance, so that it can skip its own notifications
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, List<Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+    private final List<Runnable> resyncListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private Thread listener;
+
+    @Autowired
+    public CacheInvalidationBus(JdbcTemplate jdbcTemplate, DataSourceProperties dataSourceProperties,
+                                TelegramDailyBotProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.enabled = properties.getCacheInvalidation().isEnabled();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Registers a handler receiving the key of every entry of the topic changed by another instance
+    public void subscribe(String topic, Consumer<String> handler) {
+        subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    // Registers a full reload, run when notifications may have been missed
+    public void onResync(Runnable resync) {
+        resyncListeners.add(resync);
+    }
+
+    public void publish(String topic, Object key) {
+        publish(topic, List.of(key));
+    }
+
+    // Joins the keys into as few notifications as the payload limit allows
+    public void publish(String topic, Collection<?> keys) {
+        if (!enabled || keys.isEmpty()) {
+            return;
+        }
+        String prefix = nodeId + ":" + topic + ":";
+        StringBuilder payload = new StringBuilder(prefix);
+        for (Object key : keys) {
+            String value = key.toString();
+            if (payload.length() > prefix.length() && payload.length() + 1 + value.length() > MAX_PAYLOAD) {
+                notify(payload.toString());
+                payload.setLength(prefix.length());
+            }
+            if (payload.length() > prefix.length()) {
+                payload.append(',');
+            }
+            payload.append(value);
+        }
+        notify(payload.toString());
+    }
+
+    // The payload announcing a change of one key, for a writer that sends the notification with
+    // "pg_notify(CHANNEL, payload)" in the same statement as the change itself
+    String payload(String topic, Object key) {
+        return nodeId + ":" + topic + ":" + key;
+    }
+
+    private void notify(String payload) {
+        jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, payload);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "cache-invalidation");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (connectedBefore) {
+                    logger.info("Cache invalidation listener reconnected, reloading caches");
+                    resyncListeners.forEach(Runnable::run);
+                }
+                connectedBefore = true;
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(10000);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Cache invalidation listener failed, reconnecting in {} ms", RECONNECT_DELAY_MILLIS, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        String[] parts = payload.split(":", 3);
+        if (parts.length != 3 || parts[0].equals(nodeId)) {
+            return;
+        }
+        List<Consumer<String>> handlers = subscribers.getOrDefault(parts[1], List.of());
+        for (String key : parts[2].split(",")) {
+            for (Consumer<String> handler : handlers) {
+                try {
+                    handler.accept(key);
+                } catch (RuntimeException e) {
+                    logger.error("Error invalidating {} {}", parts[1], key, e);
+                }
+            }
+        }
+    }
+}
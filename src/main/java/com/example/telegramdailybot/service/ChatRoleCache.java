@@ -0,0 +1,66 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.Chat;
+import com.example.telegramdailybot.repository.ChatRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the ID and role of every registered chat in memory, so that checking whether a chat may use the bot,
+// or whether a user is an admin, needs no database query. Loaded at startup and updated by ChatService
+// once its changes are committed; changes made by other bot instances arrive through the CacheInvalidationBus.
+@Component
+public class ChatRoleCache {
+    private static final Logger logger = LoggerFactory.getLogger(ChatRoleCache.class);
+    private static final String NO_ROLE = "";
+    private final ChatRepository chatRepository;
+
+    // Replaced as a whole by load(), so that a reload never shows a partially filled cache
+    private volatile Map<Long, String> roles = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChatRoleCache(ChatRepository chatRepository, CacheInvalidationBus invalidationBus) {
+        this.chatRepository = chatRepository;
+        invalidationBus.subscribe(CacheInvalidationBus.CHAT, key -> reload(Long.parseLong(key)));
+        invalidationBus.onResync(this::load);
+    }
+
+    @PostConstruct
+    public void load() {
+        List<Chat> chats = chatRepository.findAll();
+        Map<Long, String> loaded = new ConcurrentHashMap<>();
+        chats.forEach(chat -> loaded.put(chat.getTelegramchatid(), roleOf(chat)));
+        roles = loaded;
+        logger.info("Loaded {} chats into the chat role cache", chats.size());
+    }
+
+    public boolean contains(long chatId) {
+        return roles.containsKey(chatId);
+    }
+
+    public boolean isAdmin(long chatId) {
+        return "admin".equals(roles.get(chatId));
+    }
+
+    public void put(Chat chat) {
+        roles.put(chat.getTelegramchatid(), roleOf(chat));
+    }
+
+    private static String roleOf(Chat chat) {
+        return chat.getRole() != null ? chat.getRole() : NO_ROLE;
+    }
+
+    public void remove(long chatId) {
+        roles.remove(chatId);
+    }
+
+    private void reload(long chatId) {
+        chatRepository.findById(chatId).ifPresentOrElse(this::put, () -> remove(chatId));
+    }
+}
@@ -5,25 +5,38 @@ import com.example.telegramdailybot.repository.ChatRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
 @Service
 public class ChatService {
     private final ChatRepository chatRepository;
+    private final ChatRoleCache chatRoleCache;
+    private final CacheInvalidationBus invalidationBus;
 
     @Autowired
-    public ChatService(ChatRepository chatRepository) {
+    public ChatService(ChatRepository chatRepository, ChatRoleCache chatRoleCache, CacheInvalidationBus invalidationBus) {
         this.chatRepository = chatRepository;
+        this.chatRoleCache = chatRoleCache;
+        this.invalidationBus = invalidationBus;
     }
 
     public Chat save(Chat chat) {
-        return chatRepository.save(chat);
+        Chat saved = chatRepository.save(chat);
+        invalidationBus.publish(CacheInvalidationBus.CHAT, saved.getTelegramchatid());
+        afterCommit(() -> chatRoleCache.put(saved));
+        return saved;
     }
 
     public void delete(Chat chat) {
         chatRepository.delete(chat);
+        long chatId = chat.getTelegramchatid();
+        invalidationBus.publish(CacheInvalidationBus.CHAT, chatId);
+        afterCommit(() -> chatRoleCache.remove(chatId));
     }
 
     public Optional<Chat> findById(long chatId) {
@@ -58,12 +71,10 @@ public class ChatService {
 
     @Transactional
     public void deleteChatsFromText(String text) {
-        String[] lines = text.split("\\n");
-
-        for (String line : lines) {
-            findById(Long.parseLong(line)).ifPresent(this::delete
-            );
-        }
+        List<Long> ids = Arrays.stream(text.split("\\n")).map(Long::parseLong).toList();
+        chatRepository.deleteAllByIdInBatch(ids);
+        invalidationBus.publish(CacheInvalidationBus.CHAT, ids);
+        afterCommit(() -> ids.forEach(chatRoleCache::remove));
     }
 
     @Transactional
@@ -89,8 +100,7 @@ public class ChatService {
     }
 
     public boolean isAdmin(long chatId) {
-        Optional<Chat> chatOptional = findById(chatId);
-        return chatOptional.isPresent() && "admin".equals(chatOptional.get().getRole());
+        return chatRoleCache.isAdmin(chatId);
     }
 
     public String generateChatList() {
@@ -104,6 +114,28 @@ public class ChatService {
     }
 
     public boolean existsById(long chatId) {
-        return chatRepository.existsById(chatId);
+        return chatRoleCache.contains(chatId);
+    }
+
+    // Asks the database instead of the cache, which may not know a chat added by another instance yet.
+    // A chat found this way is added to the cache.
+    public boolean existsInDatabase(long chatId) {
+        Optional<Chat> chat = chatRepository.findById(chatId);
+        chat.ifPresent(chatRoleCache::put);
+        return chat.isPresent();
+    }
+
+    // Updates the cache only once the change is committed, so that it never shows a rolled back change
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
@@ -0,0 +1,15 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.UserActionState;
+
+// Holds the step a user is at in a multi-message conversation with the bot (e.g. "send the users to add"),
+// per user and chat. The implementation is chosen with telegrambot.conversation.store.
+public interface ConversationStateStore {
+
+    // Returns the state of the user in the chat, or null if the user is not in a conversation
+    UserActionState get(long chatId, long userId);
+
+    void put(long chatId, long userId, UserActionState state);
+
+    void remove(long chatId, long userId);
+}
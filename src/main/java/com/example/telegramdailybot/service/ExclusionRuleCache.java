@@ -0,0 +1,47 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.ExclusionRules;
+import com.example.telegramdailybot.model.Notification;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Caches the compiled exclusion rules of every notification. An entry is reused for as long as the
+// notification's "datetimexcluded" configuration is unchanged, and recompiled once it is edited.
+@Component
+public class ExclusionRuleCache {
+    private final Map<Integer, CachedRules> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ExclusionRuleCache(CacheInvalidationBus invalidationBus) {
+        invalidationBus.subscribe(CacheInvalidationBus.NOTIFICATION, key -> evict(Integer.parseInt(key)));
+        invalidationBus.onResync(cache::clear);
+    }
+
+    public ExclusionRules rulesFor(Notification notification) {
+        JsonNode datetimexcluded = notification.getDatetimexcluded();
+        if (datetimexcluded == null) {
+            return ExclusionRules.NONE;
+        }
+        if (notification.getId() == null) {
+            return ExclusionRules.compile(datetimexcluded);
+        }
+        CachedRules cached = cache.get(notification.getId());
+        if (cached != null && cached.source().equals(datetimexcluded)) {
+            return cached.rules();
+        }
+        ExclusionRules rules = ExclusionRules.compile(datetimexcluded);
+        cache.put(notification.getId(), new CachedRules(datetimexcluded.deepCopy(), rules));
+        return rules;
+    }
+
+    public void evict(int notificationId) {
+        cache.remove(notificationId);
+    }
+
+    private record CachedRules(JsonNode source, ExclusionRules rules) {
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.UserActionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the conversation states in this instance's memory. Entries expire when a user abandons a conversation,
+// and the least recently used entries are evicted once the store is full.
+@Component
+@ConditionalOnProperty(prefix = "telegrambot.conversation", name = "store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStateStore implements ConversationStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryConversationStateStore.class);
+    private final Clock clock;
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    // In access order, guarded by the map itself
+    private final LinkedHashMap<Key, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @Autowired
+    public InMemoryConversationStateStore(TelegramDailyBotProperties properties, Clock clock) {
+        this(clock, properties.getConversation().getTtlMinutes() * 60_000L, properties.getConversation().getMaxEntries());
+    }
+
+    InMemoryConversationStateStore(Clock clock, long ttlMillis, int maxEntries) {
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public UserActionState get(long chatId, long userId) {
+        Key key = new Key(chatId, userId);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() <= clock.millis()) {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.state();
+        }
+    }
+
+    @Override
+    public void put(long chatId, long userId, UserActionState state) {
+        put(chatId, userId, state, ttlMillis);
+    }
+
+    // Stores an entry that expires after the given time instead of the store's TTL
+    void put(long chatId, long userId, UserActionState state, long ttlMillis) {
+        Entry entry = new Entry(state, clock.millis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(new Key(chatId, userId), entry);
+        }
+    }
+
+    @Override
+    public void remove(long chatId, long userId) {
+        synchronized (entries) {
+            entries.remove(new Key(chatId, userId));
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void report() {
+        purgeExpired();
+        logger.debug("Conversation states: {} active, {} hits, {} misses, {} evicted, {} expired",
+                size(), getHits(), getMisses(), getEvictions(), getExpirations());
+    }
+
+    // Drops the expired entries of users who never came back
+    void purgeExpired() {
+        long now = clock.millis();
+        int purged = 0;
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt() <= now) {
+                    iterator.remove();
+                    purged++;
+                }
+            }
+        }
+        expirations.add(purged);
+    }
+
+    private record Key(long chatId, long userId) {
+    }
+
+    private record Entry(UserActionState state, long expiresAt) {
+    }
+}
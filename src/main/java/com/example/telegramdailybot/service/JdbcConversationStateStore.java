@@ -0,0 +1,116 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.UserActionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps the conversation states in the conversation_states table, so that several bot instances behind
+// one webhook share them. Reads go through a small local cache whose entries live only for a few seconds,
+// which bounds how long a change made by another instance may go unnoticed. With cache invalidation enabled,
+// every change is announced to the other instances, which evict their copy. The announcement is sent by the
+// same statement that writes the change, so every update stays a single round trip. The states this instance
+// has written are then kept for the whole conversation, so a conversation continued on the same instance
+// needs no extra query.
+@Component
+@ConditionalOnProperty(prefix = "telegrambot.conversation", name = "store", havingValue = "jdbc")
+public class JdbcConversationStateStore implements ConversationStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcConversationStateStore.class);
+    private static final String UPSERT = """
+            INSERT INTO conversation_states (chatid, userid, state, expires_at) VALUES (?, ?, ?, ?)
+            ON CONFLICT (chatid, userid) DO UPDATE SET state = EXCLUDED.state, expires_at = EXCLUDED.expires_at""";
+    private static final String DELETE = "DELETE FROM conversation_states WHERE chatid = ? AND userid = ?";
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+    private final long ttlMillis;
+    private final InMemoryConversationStateStore cache;
+    private final CacheInvalidationBus invalidationBus;
+    // How long a state written by this instance stays in the local cache
+    private final long writtenTtlMillis;
+
+    @Autowired
+    public JdbcConversationStateStore(JdbcTemplate jdbcTemplate, TelegramDailyBotProperties properties, Clock clock,
+                                      CacheInvalidationBus invalidationBus) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+        this.invalidationBus = invalidationBus;
+        TelegramDailyBotProperties.Conversation conversation = properties.getConversation();
+        this.ttlMillis = conversation.getTtlMinutes() * 60_000L;
+        long cacheMillis = conversation.getCacheSeconds() * 1000L;
+        this.cache = new InMemoryConversationStateStore(clock, cacheMillis, conversation.getMaxEntries());
+        this.writtenTtlMillis = invalidationBus.isEnabled() ? ttlMillis : cacheMillis;
+        invalidationBus.subscribe(CacheInvalidationBus.CONVERSATION, this::evict);
+        invalidationBus.onResync(this::evictAll);
+    }
+
+    @Override
+    public UserActionState get(long chatId, long userId) {
+        UserActionState cached = cache.get(chatId, userId);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> states = jdbcTemplate.queryForList(
+                "SELECT state FROM conversation_states WHERE chatid = ? AND userid = ? AND expires_at > ?",
+                String.class, chatId, userId, new Timestamp(clock.millis()));
+        if (states.isEmpty()) {
+            return null;
+        }
+        UserActionState state = UserActionState.valueOf(states.get(0));
+        cache.put(chatId, userId, state);
+        return state;
+    }
+
+    @Override
+    public void put(long chatId, long userId, UserActionState state) {
+        write(chatId, userId, UPSERT, chatId, userId, state.name(), new Timestamp(clock.millis() + ttlMillis));
+        cache.put(chatId, userId, state, writtenTtlMillis);
+    }
+
+    @Override
+    public void remove(long chatId, long userId) {
+        cache.remove(chatId, userId);
+        write(chatId, userId, DELETE, chatId, userId);
+    }
+
+    // Runs the write, and with cache invalidation enabled announces it in the same statement. A data-modifying
+    // WITH clause always runs to completion, whether or not the SELECT reads its result.
+    private void write(long chatId, long userId, String sql, Object... args) {
+        if (!invalidationBus.isEnabled()) {
+            jdbcTemplate.update(sql, args);
+            return;
+        }
+        Object[] withNotify = Arrays.copyOf(args, args.length + 2);
+        withNotify[args.length] = CacheInvalidationBus.CHANNEL;
+        withNotify[args.length + 1] = invalidationBus.payload(CacheInvalidationBus.CONVERSATION, chatId + ":" + userId);
+        jdbcTemplate.queryForList("WITH written AS (" + sql + ") SELECT pg_notify(?, ?)", withNotify);
+    }
+
+    // The key of a change announced by another instance is "chatId:userId"
+    private void evict(String key) {
+        String[] ids = key.split(":");
+        cache.remove(Long.parseLong(ids[0]), Long.parseLong(ids[1]));
+    }
+
+    private void evictAll() {
+        cache.clear();
+    }
+
+    // Expired conversations are deleted in bulk instead of one by one
+    @Scheduled(fixedRate = 60000)
+    public void purgeExpired() {
+        cache.purgeExpired();
+        int deleted = jdbcTemplate.update("DELETE FROM conversation_states WHERE expires_at <= ?", new Timestamp(clock.millis()));
+        logger.debug("Deleted {} expired conversation states, local cache: {} hits, {} misses",
+                deleted, cache.getHits(), cache.getMisses());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.SchedulerMode;
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.repository.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
+
+// Keeps the due time of every notification in memory, ordered by due time, so that the scheduler
+// only has to load the notifications that are actually due instead of scanning the whole table.
+@Component
+public class NotificationScheduleIndex {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationScheduleIndex.class);
+    private final NotificationRepository notificationRepository;
+    private final boolean enabled;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    // The current due time of every indexed notification. Queue entries that no longer match it are stale.
+    private final Map<Integer, Long> dueTimes = new HashMap<>();
+    private volatile LongConsumer dueTimeListener;
+
+    @Autowired
+    public NotificationScheduleIndex(NotificationRepository notificationRepository, TelegramDailyBotProperties properties,
+                                     CacheInvalidationBus invalidationBus) {
+        this.notificationRepository = notificationRepository;
+        // In the database mode every tick queries the due window itself, so the index stays empty
+        this.enabled = properties.getScheduler().getMode() == SchedulerMode.MEMORY;
+        if (enabled) {
+            invalidationBus.subscribe(CacheInvalidationBus.NOTIFICATION, key -> reload(Integer.parseInt(key)));
+            invalidationBus.onResync(this::load);
+        }
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        List<Notification> notifications = notificationRepository.findAll();
+        synchronized (this) {
+            queue.clear();
+            dueTimes.clear();
+            notifications.forEach(this::schedule);
+        }
+        logger.info("Loaded {} notifications into the schedule index", notifications.size());
+    }
+
+    public void schedule(Notification notification) {
+        if (notification.getId() == null || notification.getDatetime() == null) {
+            return;
+        }
+        schedule(notification.getId(), notification.getDatetime());
+    }
+
+    public void schedule(int id, ZonedDateTime datetime) {
+        if (!enabled) {
+            return;
+        }
+        long dueAt = datetime.toInstant().toEpochMilli();
+        synchronized (this) {
+            Long previous = dueTimes.put(id, dueAt);
+            if (previous != null && previous == dueAt) {
+                return;
+            }
+            queue.add(new Entry(id, dueAt));
+        }
+        // Notify outside the lock, so that the listener can never deadlock with the index
+        LongConsumer listener = dueTimeListener;
+        if (listener != null) {
+            listener.accept(dueAt);
+        }
+    }
+
+    // Registers a callback that receives the due time (epoch millis) of every newly scheduled notification
+    public void setDueTimeListener(LongConsumer dueTimeListener) {
+        this.dueTimeListener = dueTimeListener;
+    }
+
+    // Returns the earliest due time (epoch millis) in the index, discarding stale entries on the way
+    public synchronized OptionalLong nextDueAt() {
+        while (!queue.isEmpty()) {
+            Entry head = queue.peek();
+            Long current = dueTimes.get(head.id());
+            if (current != null && current == head.dueAt()) {
+                return OptionalLong.of(head.dueAt());
+            }
+            queue.poll();
+        }
+        return OptionalLong.empty();
+    }
+
+    // Picks up a change made by another bot instance
+    private void reload(int id) {
+        notificationRepository.findById(id).ifPresentOrElse(this::schedule, () -> remove(id));
+    }
+
+    public synchronized void remove(int id) {
+        // The queue entry is dropped lazily when it reaches the head
+        dueTimes.remove(id);
+    }
+
+    // Removes and returns the IDs of all notifications due at or before the given time
+    public synchronized List<Integer> pollDue(ZonedDateTime now) {
+        long nowMillis = now.toInstant().toEpochMilli();
+        List<Integer> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().dueAt() <= nowMillis) {
+            Entry entry = queue.poll();
+            Long current = dueTimes.get(entry.id());
+            if (current != null && current == entry.dueAt()) {
+                dueTimes.remove(entry.id());
+                due.add(entry.id());
+            }
+        }
+        return due;
+    }
+
+    // Puts back polled notifications whose dispatch failed, as due at the given time, so that the next poll
+    // retries them. A notification indexed again in the meantime, e.g. because it was edited, keeps its due time.
+    // The due time listener is not notified, so a failing dispatch isn't retried in a tight loop.
+    public synchronized void requeue(Collection<Integer> ids, ZonedDateTime dueAt) {
+        long dueAtMillis = dueAt.toInstant().toEpochMilli();
+        for (Integer id : ids) {
+            if (dueTimes.putIfAbsent(id, dueAtMillis) == null) {
+                queue.add(new Entry(id, dueAtMillis));
+            }
+        }
+    }
+
+    public synchronized boolean contains(int id) {
+        return dueTimes.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return dueTimes.size();
+    }
+
+    private record Entry(int id, long dueAt) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(dueAt, other.dueAt);
+        }
+    }
+}
@@ -1,177 +1,462 @@
 package com.example.telegramdailybot.service;
 
 import com.example.telegramdailybot.TelegramDailyBot;
+import com.example.telegramdailybot.config.MisfirePolicy;
+import com.example.telegramdailybot.config.SchedulerMode;
 import com.example.telegramdailybot.config.TelegramDailyBotProperties;
 import com.example.telegramdailybot.controller.ChatManagementController;
 import com.example.telegramdailybot.controller.NotificationManagementController;
 import com.example.telegramdailybot.controller.UserManagementController;
-import com.example.telegramdailybot.model.Chat;
 import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.model.OutboxMessage;
+import com.example.telegramdailybot.model.Recurrence;
+import com.example.telegramdailybot.model.Repetition;
 import com.example.telegramdailybot.model.User;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.example.telegramdailybot.util.BotUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Service
 public class NotificationSchedulerService {
     private static final Logger logger = LoggerFactory.getLogger(TelegramDailyBot.class);
+    private static final ZonedDateTime CATCH_UP_FROM = Instant.EPOCH.atZone(ZoneOffset.UTC);
+    private static final long DISPATCH_RETRY_DELAY_MILLIS = 5000;
     private final NotificationManagementController notificationManagementController;
     private final UserManagementController userManagementController;
     private final ChatManagementController chatManagementController;
     private final TelegramDailyBotProperties properties;
-    private final TelegramDailyBot telegramDailyBot;
+    private final OutboxRelayService outboxRelayService;
+    private final NotificationScheduleIndex scheduleIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final ExclusionRuleCache exclusionRuleCache;
+    private final SchedulerMetrics schedulerMetrics;
+    private final Clock clock;
+
+    // Serializes dispatches from the precise timer and the periodic sweep
+    private final Object dispatchLock = new Object();
+    private final Object timerLock = new Object();
+    private ScheduledExecutorService dispatchTimer;
+    private ScheduledFuture<?> armedTimer;
+    private long armedDueAt = Long.MAX_VALUE;
+    // Start time of the last completed tick in the database and cluster modes
+    private volatile ZonedDateTime lastTickAt;
+    // Time of the last completed dispatch from the schedule index in the memory mode, guarded by dispatchLock
+    private ZonedDateTime lastDispatchAt;
+    // Notifications polled from the index that could not be loaded once, guarded by dispatchLock
+    private final Set<Integer> missingOnce = new HashSet<>();
 
     @Autowired
     public NotificationSchedulerService(NotificationManagementController notificationManagementController,
                                         UserManagementController userManagementController,
                                         ChatManagementController chatManagementController,
                                         TelegramDailyBotProperties properties,
-                                        TelegramDailyBot telegramDailyBot) {
+                                        OutboxRelayService outboxRelayService,
+                                        NotificationScheduleIndex scheduleIndex,
+                                        PlatformTransactionManager transactionManager,
+                                        ExclusionRuleCache exclusionRuleCache,
+                                        SchedulerMetrics schedulerMetrics,
+                                        Clock clock) {
         this.notificationManagementController = notificationManagementController;
         this.userManagementController = userManagementController;
         this.chatManagementController = chatManagementController;
         this.properties = properties;
-        this.telegramDailyBot = telegramDailyBot;
+        this.outboxRelayService = outboxRelayService;
+        this.scheduleIndex = scheduleIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.exclusionRuleCache = exclusionRuleCache;
+        this.schedulerMetrics = schedulerMetrics;
+        this.clock = clock;
+    }
+
+    // With precise dispatch, a timer is armed for the earliest due time in the schedule index, so every
+    // notification fires at its exact instant instead of on the next 60-second tick
+    @PostConstruct
+    public void startPreciseDispatch() {
+        if (!properties.getScheduler().isPreciseDispatch() || properties.getScheduler().getMode() != SchedulerMode.MEMORY) {
+            return;
+        }
+        dispatchTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleIndex.setDueTimeListener(this::armTimer);
+        scheduleIndex.nextDueAt().ifPresent(this::armTimer);
+    }
+
+    @PreDestroy
+    public void stopPreciseDispatch() {
+        if (dispatchTimer != null) {
+            dispatchTimer.shutdownNow();
+        }
+    }
+
+    private void armTimer(long dueAt) {
+        synchronized (timerLock) {
+            if (armedTimer != null && !armedTimer.isDone() && armedDueAt <= dueAt) {
+                return;
+            }
+            if (armedTimer != null) {
+                armedTimer.cancel(false);
+            }
+            armedDueAt = dueAt;
+            long delay = Math.max(0, dueAt - clock.millis());
+            armedTimer = dispatchTimer.schedule(this::onTimer, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onTimer() {
+        synchronized (timerLock) {
+            armedTimer = null;
+            armedDueAt = Long.MAX_VALUE;
+        }
+        long retryAt = 0;
+        try {
+            dispatchFromIndex(ZonedDateTime.now(clock));
+            outboxRelayService.drain();
+        } catch (RuntimeException e) {
+            logger.error("Error dispatching due notifications", e);
+            // The failed notifications are still due, so wait a little before trying them again
+            retryAt = clock.millis() + DISPATCH_RETRY_DELAY_MILLIS;
+        }
+        long notBefore = retryAt;
+        scheduleIndex.nextDueAt().ifPresent(dueAt -> armTimer(Math.max(dueAt, notBefore)));
     }
 
     //This method is responsible for checking and sending notifications to chats.
     //It is scheduled to run every 60 seconds after an initial delay of 1 second.
+    //Depending on the scheduler mode, the due notifications come either from the in-memory schedule index
+    //or from a streamed query over the current dispatch window.
+    //The reschedules and deletions of a tick are collected and written to the database in one batch,
+    //together with the outgoing messages, which are queued in the outbox and delivered by the outbox relay.
     @Scheduled(fixedRate = 60000, initialDelay = 1000) // Run every 60 seconds
     public void checkAndSendNotifications() {
-        List<Notification> notifications = notificationManagementController.findAll();
-
-        for (Notification notification : notifications) {
-            ZonedDateTime notificationDateTime = notification.getDatetime();
-            ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
-
-            // Check if the current time is within the 1-minute time window of the notification's scheduled time
-            if ((now.isEqual(notificationDateTime) || (now.isAfter(notificationDateTime) && now.isBefore(notificationDateTime.plusMinutes(1))))) {
-                if (!isNotificationExcluded(notification, now)) {
-                    Optional<Chat> optionalChat = chatManagementController.findById(notification.getChatid());
-                    if (optionalChat.isPresent()) {
-                        Chat chat = optionalChat.get();
-                        String text = notification.getText();
-
-                        // Replace "@name" and "@username" placeholders with the winner's name and username, if applicable
-                        if (text.contains("@name") || text.contains("@username")) {
-                            User winner = userManagementController.findWinner(chat.getTelegramchatid());
-                            if (winner != null) {
-                                text = text.replace("@name", winner.getName());
-                                text = text.replace("@username", "@" + winner.getUsername());
-                            } else {
-                                text = "There are no participants for the drawing in this chat";
-                            }
-                        }
-                        sendChatMessage(chat.getTelegramchatid(), text);
-                    } else {
-                        notificationManagementController.delete(notification);
-                    }
-                }
-                // Update the notification's scheduled time based on its repetition setting
-                // This is outside the !isNotificationExcluded() check but still within the time range check
-                switch (notification.getRepetition()) {
-                    case "minutely" -> {
-                        notification.setDatetime(notificationDateTime.plusMinutes(5));
-                        notificationManagementController.save(notification);
-                    }
-                    case "hourly" -> {
-                        notification.setDatetime(notificationDateTime.plusHours(1));
-                        notificationManagementController.save(notification);
-                    }
-                    case "daily" -> {
-                        notification.setDatetime(notificationDateTime.plusDays(1));
-                        notificationManagementController.save(notification);
-                    }
-                    case "weekly" -> {
-                        notification.setDatetime(notificationDateTime.plusWeeks(1));
-                        notificationManagementController.save(notification);
+        long start = System.nanoTime();
+        tick(ZonedDateTime.now(clock));
+        outboxRelayService.drain();
+        schedulerMetrics.recordTick(System.nanoTime() - start);
+        // The percentiles sort the recent tick durations, so they are only computed when actually logged
+        if (logger.isDebugEnabled()) {
+            logger.debug("Scheduler tick took {} ms (p50 {} ms, p99 {} ms), {} sends, {} misfires, {} duplicate fires",
+                    (System.nanoTime() - start) / 1_000_000, schedulerMetrics.getTickPercentileMillis(50),
+                    schedulerMetrics.getTickPercentileMillis(99), schedulerMetrics.getSends(),
+                    schedulerMetrics.getMisfires(), schedulerMetrics.getDuplicateFires());
+        }
+    }
+
+    private void tick(ZonedDateTime now) {
+        SchedulerMode mode = properties.getScheduler().getMode();
+        if (mode == SchedulerMode.DATABASE || mode == SchedulerMode.CLUSTER) {
+            ZonedDateTime misfireBefore = misfireThreshold(lastTickAt, now);
+            if (mode == SchedulerMode.DATABASE) {
+                // On the first tick, and after a tick that started late, the window reaches back to cover
+                // everything that became overdue in the meantime, so missed notifications are caught up in bulk
+                ZonedDateTime from = lastTickAt == null ? CATCH_UP_FROM : min(lastTickAt, now.minusMinutes(1));
+                transactionTemplate.executeWithoutResult(status -> {
+                    ScheduleChanges changes = new ScheduleChanges();
+                    try (Stream<Notification> notifications = notificationManagementController.streamDueWindow(from, now)) {
+                        notifications.forEach(notification -> processNotification(notification, now, misfireBefore, changes));
                     }
-                    case "monthly" -> {
-                        notification.setDatetime(notificationDateTime.plusMonths(1));
-                        notificationManagementController.save(notification);
+                    flush(changes);
+                });
+            } else {
+                claimAndSendNotifications(now, misfireBefore);
+            }
+            lastTickAt = now;
+            return;
+        }
+
+        // With precise dispatch enabled, this tick is the catch-up sweep for anything the timer missed.
+        // Overdue notifications are always in the index, so they are caught up here as well.
+        dispatchFromIndex(now);
+        if (dispatchTimer != null) {
+            logger.debug("Sent {} notifications so far, dispatch lag avg {} ms, max {} ms",
+                    schedulerMetrics.getSends(), schedulerMetrics.getAverageLagMillis(), schedulerMetrics.getMaxLagMillis());
+        }
+    }
+
+    private void dispatchFromIndex(ZonedDateTime now) {
+        synchronized (dispatchLock) {
+            ZonedDateTime misfireBefore = misfireThreshold(lastDispatchAt, now);
+            List<Integer> dueIds = scheduleIndex.pollDue(now);
+            if (dueIds.isEmpty()) {
+                lastDispatchAt = now;
+                return;
+            }
+            try {
+                ScheduleChanges changes = new ScheduleChanges();
+                Set<Integer> missing = new HashSet<>(dueIds);
+                for (Notification notification : notificationManagementController.findAllById(dueIds)) {
+                    missing.remove(notification.getId());
+                    missingOnce.remove(notification.getId());
+                    // The notification was moved to a later time after it was indexed, so put it back in the index
+                    if (notification.getDatetime().isAfter(now)) {
+                        scheduleIndex.schedule(notification);
+                        continue;
                     }
-                    case "once" -> notificationManagementController.delete(notification);
+                    processNotification(notification, now, misfireBefore, changes);
+                }
+                flush(changes);
+                requeueMissing(missing, now);
+            } catch (RuntimeException e) {
+                // Nothing was written, so the notifications must stay in the index to be retried
+                scheduleIndex.requeue(dueIds, now);
+                throw e;
+            }
+            lastDispatchAt = now;
+        }
+    }
+
+    // A notification that can't be loaded was usually deleted, and its removal from the index is on its way.
+    // It is only dropped when it is still missing on the retry, so that a notification whose row is not
+    // visible yet to this connection is not lost from the index.
+    private void requeueMissing(Set<Integer> missing, ZonedDateTime now) {
+        // Notifications removed from the index while waiting for their retry need no retry anymore
+        missingOnce.removeIf(id -> !missing.contains(id) && !scheduleIndex.contains(id));
+        List<Integer> retry = new ArrayList<>();
+        for (Integer id : missing) {
+            if (missingOnce.remove(id)) {
+                logger.debug("Dropped notification {} from the schedule index, it no longer exists", id);
+            } else {
+                missingOnce.add(id);
+                retry.add(id);
+            }
+        }
+        if (!retry.isEmpty()) {
+            scheduleIndex.requeue(retry, now.plus(DISPATCH_RETRY_DELAY_MILLIS, ChronoUnit.MILLIS));
+        }
+    }
+
+    // A notification missed its window if it was already due when the previous check ran. Without a previous
+    // check, e.g. right after startup, it gets one tick interval of grace. Judging by the previous check instead
+    // of a fixed minute keeps a tick that starts a little late from turning on-time notifications into misfires.
+    private static ZonedDateTime misfireThreshold(ZonedDateTime previousCheck, ZonedDateTime now) {
+        return previousCheck != null ? previousCheck : now.minusMinutes(1);
+    }
+
+    // Each batch is claimed, sent and rescheduled in its own transaction. The row locks are held until the
+    // reschedule is committed, so other instances either skip the rows or no longer find them in the window.
+    // Every tick claims all overdue rows, however old: a row skipped because another instance held it is due
+    // again on the next tick if that instance rolled back or died. The cursor only pages through one tick.
+    private void claimAndSendNotifications(ZonedDateTime now, ZonedDateTime misfireBefore) {
+        int batchSize = properties.getScheduler().getClaimBatchSize();
+        ClaimCursor cursor = new ClaimCursor(CATCH_UP_FROM, Integer.MAX_VALUE);
+        while (cursor != null) {
+            ClaimCursor current = cursor;
+            cursor = transactionTemplate.execute(status -> {
+                List<Notification> claimed = notificationManagementController.claimDueWindow(current.datetime(), current.id(), now, batchSize);
+                if (claimed.isEmpty()) {
+                    return null;
                 }
+                Notification last = claimed.get(claimed.size() - 1);
+                ClaimCursor next = new ClaimCursor(last.getDatetime(), last.getId());
+                ScheduleChanges changes = new ScheduleChanges();
+                claimed.forEach(notification -> processNotification(notification, now, misfireBefore, changes));
+                flush(changes);
+                return claimed.size() < batchSize ? null : next;
+            });
+        }
+    }
+
+    private void processNotification(Notification notification, ZonedDateTime now, ZonedDateTime misfireBefore,
+                                     ScheduleChanges changes) {
+        ZonedDateTime notificationDateTime = notification.getDatetime();
+        if (notificationDateTime.isAfter(now)) {
+            return;
+        }
+        Recurrence repetition = recurrenceOf(notification);
+
+        // A notification that was already due at the previous check missed its window,
+        // e.g. because the bot was down
+        int fires = 1;
+        if (notificationDateTime.isBefore(misfireBefore)) {
+            fires = misfireCount(notification, repetition, now);
+        }
+
+        if (fires > 0 && !isNotificationExcluded(notification, now)) {
+            if (notification.getChatid() == null || !chatExists(notification.getChatid())) {
+                changes.delete(notification.getId());
+                return;
+            }
+            for (int i = 0; i < fires; i++) {
+                sendNotification(notification.getChatid(), notification, changes);
+            }
+            schedulerMetrics.recordFire(notification.getId(), notificationDateTime.toInstant().toEpochMilli());
+        }
+        // Update the notification's scheduled time based on its repetition setting.
+        // This is outside the !isNotificationExcluded() check, and skips over all missed occurrences at once.
+        if (repetition == Repetition.ONCE) {
+            changes.delete(notification.getId());
+        } else if (repetition != null) {
+            ZonedDateTime next = repetition.nextAfter(notificationDateTime, now);
+            if (next != null) {
+                changes.reschedule(notification.getId(), next);
+            } else {
+                // A cron schedule without any future fire time
+                changes.delete(notification.getId());
             }
         }
     }
 
-    private void sendChatMessage(Long chatId, String text) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText(text);
-        message.setDisableWebPagePreview(true);
+    // The notification is deleted when its chat is gone, so a miss in the chat cache, which may just not
+    // know a chat added by another instance, is confirmed against the database first
+    private boolean chatExists(long chatId) {
+        return chatManagementController.existsById(chatId) || chatManagementController.existsInDatabase(chatId);
+    }
+
+    private Recurrence recurrenceOf(Notification notification) {
         try {
-            telegramDailyBot.execute(message);
-        } catch (TelegramApiException e) {
-            logger.error("Error sending message to chat: {}", chatId, e);
+            return Recurrence.parse(notification.getRepetition(), properties.getTimeZone()).orElse(null);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Notification {} has an invalid repetition: {}", notification.getId(), notification.getRepetition());
+            return null;
         }
     }
 
-    private boolean isNotificationExcluded(Notification notification, ZonedDateTime now) {
-        // Retrieve the "datetimexcluded" configuration from the notification
-        JsonNode datetimexcluded = notification.getDatetimexcluded();
-        // If "datetimexcluded" is not set, the notification is not excluded.
-        if (datetimexcluded == null) {
-            return false;
-        }
-
-        // Check if weekends are excluded from the notification schedule
-        boolean isWeekendExcluded = datetimexcluded.get("weekends").asBoolean();
-        if (isWeekendExcluded) {
-            // If the current day is Saturday (6) or Sunday (7), the notification is excluded
-            int dayOfWeek = now.getDayOfWeek().getValue();
-            if (dayOfWeek == 6 || dayOfWeek == 7) {
-                return true;
+    private int misfireCount(Notification notification, Recurrence repetition, ZonedDateTime now) {
+        if (repetition == null) {
+            return 0;
+        }
+        MisfirePolicy policy = properties.getScheduler().getMisfirePolicy();
+        schedulerMetrics.recordMisfire();
+        logger.info("Notification {} missed its scheduled time {}, applying misfire policy {}",
+                notification.getId(), notification.getDatetime(), policy);
+        return switch (policy) {
+            case SKIP -> 0;
+            case FIRE_ONCE -> 1;
+            case FIRE_ALL -> (int) repetition.occurrencesUntil(notification.getDatetime(), now,
+                    properties.getScheduler().getMisfireMaxFires());
+        };
+    }
+
+    private void sendNotification(long chatId, Notification notification, ScheduleChanges changes) {
+        String text = notification.getText();
+
+        // Replace "@name" and "@username" placeholders with the winner's name and username, if applicable
+        if (text.contains("@name") || text.contains("@username")) {
+            User winner = userManagementController.findWinner(chatId);
+            if (winner != null) {
+                text = text.replace("@name", winner.getName());
+                text = text.replace("@username", "@" + winner.getUsername());
+            } else {
+                text = "There are no participants for the drawing in this chat";
             }
         }
+        // The substituted names can push a text over Telegram's limit, which the outbox column shares.
+        // Coalescing joins the parts again where they fit. The lag is recorded by the outbox relay
+        // once the message is actually sent.
+        for (String part : BotUtils.splitMessage(text, BotUtils.MAX_MESSAGE_LENGTH)) {
+            changes.send(chatId, part, notification.getDatetime());
+        }
+    }
 
-        // Check if specific days are excluded from the notification schedule
-        ArrayNode skipDays = (ArrayNode) datetimexcluded.get("skip_days");
-        if (skipDays != null) {
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            // Iterate through each day specified in the "skip_days" array
-            for (JsonNode skipDay : skipDays) {
-                // Retrieve the frequency and day for the current "skip_day" entry
-                int frequency = skipDay.get("frequency").asInt();
-                String dayStr = skipDay.get("day").asText();
-                LocalDateTime day = LocalDate.parse(dayStr, dateFormatter).atStartOfDay();
-                LocalDateTime nowLocal = now.withZoneSameInstant(properties.getTimeZone()).toLocalDateTime().toLocalDate().atStartOfDay();
-                // Calculate the number of days between the given day and the current time
-                long daysBetween = ChronoUnit.DAYS.between(nowLocal, day);
-
-                // If the days between the given day and now is a multiple of the frequency,
-                // the notification is excluded
-                if (daysBetween == 0) {
-                    // Update the "day" value in the "skip_days" array
-                    LocalDateTime newDay = day.plusDays(frequency);
-                    ((ObjectNode) skipDay).put("day", newDay.format(dateFormatter));
-
-                    // Update the notification's "datetimexcluded" field
-                    notification.setDatetimexcluded(datetimexcluded);
-                    notificationManagementController.save(notification);
-
-                    return true;
-                }
+    private static ZonedDateTime min(ZonedDateTime a, ZonedDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private void flush(ScheduleChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<OutboxMessage> messages = properties.getScheduler().isCoalesceMessages()
+                ? coalesce(changes.messages) : changes.messages;
+        notificationManagementController.applyScheduleChanges(changes.reschedules, changes.deletions, messages);
+        changes.deletions.forEach(schedulerMetrics::forget);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        // With precise dispatch or cluster batches there is a flush for nearly every fire, too many for info
+        logger.debug("Flushed {} rescheduled and {} deleted notifications and {} messages in {} ms",
+                changes.reschedules.size(), changes.deletions.size(), messages.size(), elapsedMillis);
+    }
+
+    // Merges the messages of each chat into as few messages as Telegram's length limit allows,
+    // keeping the order of the chats and of the messages within a chat
+    private static List<OutboxMessage> coalesce(List<OutboxMessage> messages) {
+        Map<Long, List<String>> textsByChat = new LinkedHashMap<>();
+        // A merged message is as late as the earliest notification it contains
+        Map<Long, ZonedDateTime> dueAtByChat = new HashMap<>();
+        for (OutboxMessage message : messages) {
+            textsByChat.computeIfAbsent(message.getChatid(), chatId -> new ArrayList<>()).add(message.getText());
+            dueAtByChat.merge(message.getChatid(), message.getDueAt(), NotificationSchedulerService::min);
+        }
+        if (textsByChat.size() == messages.size()) {
+            return messages;
+        }
+        List<OutboxMessage> coalesced = new ArrayList<>();
+        textsByChat.forEach((chatId, texts) -> {
+            for (String text : BotUtils.joinMessages(texts, BotUtils.MAX_MESSAGE_LENGTH)) {
+                OutboxMessage message = new OutboxMessage();
+                message.setChatid(chatId);
+                message.setText(text);
+                message.setDueAt(dueAtByChat.get(chatId));
+                coalesced.add(message);
             }
+        });
+        return coalesced;
+    }
+
+    private boolean isNotificationExcluded(Notification notification, ZonedDateTime now) {
+        // Exclusions are evaluated against the local calendar day of the bot's time zone
+        long today = now.withZoneSameInstant(properties.getTimeZone()).toLocalDate().toEpochDay();
+        return exclusionRuleCache.rulesFor(notification).isExcluded(today);
+    }
+
+    private record ClaimCursor(ZonedDateTime datetime, int id) {
+    }
+
+    // Reschedules, deletions and outgoing messages collected during a tick. A deletion overrides any reschedule of the same notification.
+    private static class ScheduleChanges {
+        private final Map<Integer, ZonedDateTime> reschedules = new LinkedHashMap<>();
+        private final Set<Integer> deletions = new LinkedHashSet<>();
+        private final List<OutboxMessage> messages = new ArrayList<>();
+
+        void reschedule(int id, ZonedDateTime datetime) {
+            if (!deletions.contains(id)) {
+                reschedules.put(id, datetime);
+            }
+        }
+
+        void delete(int id) {
+            reschedules.remove(id);
+            deletions.add(id);
+        }
+
+        void send(long chatId, String text, ZonedDateTime dueAt) {
+            OutboxMessage message = new OutboxMessage();
+            message.setChatid(chatId);
+            message.setText(text);
+            message.setDueAt(dueAt);
+            messages.add(message);
+        }
+
+        boolean isEmpty() {
+            return reschedules.isEmpty() && deletions.isEmpty() && messages.isEmpty();
         }
-        // If none of the exclusion conditions apply, the notification is not excluded
-        return false;
     }
 }
@@ -1,22 +1,32 @@
 package com.example.telegramdailybot.service;
 
 import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.CronRecurrence;
 import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.model.OutboxMessage;
 import com.example.telegramdailybot.model.ParseResult;
 import com.example.telegramdailybot.repository.NotificationRepository;
 import com.example.telegramdailybot.util.BotUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 
 @Service
@@ -24,12 +34,24 @@ public class NotificationService {
     private final NotificationRepository notificationRepository;
     private final TelegramDailyBotProperties telegramDailyBotProperties;
     private final ChatService chatService;
+    private final NotificationScheduleIndex scheduleIndex;
+    private final ExclusionRuleCache exclusionRuleCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final OutboxService outboxService;
+    private final CacheInvalidationBus invalidationBus;
 
     @Autowired
-    public NotificationService(NotificationRepository notificationRepository, TelegramDailyBotProperties telegramDailyBotProperties, ChatService chatService) {
+    public NotificationService(NotificationRepository notificationRepository, TelegramDailyBotProperties telegramDailyBotProperties, ChatService chatService,
+                               NotificationScheduleIndex scheduleIndex, ExclusionRuleCache exclusionRuleCache, JdbcTemplate jdbcTemplate,
+                               OutboxService outboxService, CacheInvalidationBus invalidationBus) {
         this.notificationRepository = notificationRepository;
         this.telegramDailyBotProperties = telegramDailyBotProperties;
         this.chatService = chatService;
+        this.scheduleIndex = scheduleIndex;
+        this.exclusionRuleCache = exclusionRuleCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.outboxService = outboxService;
+        this.invalidationBus = invalidationBus;
     }
 
     @Transactional
@@ -41,6 +63,10 @@ public class NotificationService {
             return "Error adding notification. " + parseResult.getErrorMessage();
         }
         Notification notification = parseResult.getNotification();
+        String scheduleError = applyFirstFireTime(notification);
+        if (scheduleError != null) {
+            return "Error adding notification. " + scheduleError;
+        }
         // Set the chat ID
         notification.setChatid(chatId);
 
@@ -52,18 +78,32 @@ public class NotificationService {
 
     @Transactional
     public void deleteNotificationsFromText(String text, long chatId, long userId) {
-        String[] lines = text.split("\\n");
-
-        for (String line : lines) {
-            int notificationIdToDelete = Integer.parseInt(line);
-            Notification notification = findById(notificationIdToDelete).orElse(null);
-
-            if (notification != null) {
-                if (chatService.isAdmin(userId) || notification.getChatid() == chatId) {
-                    deleteById(notificationIdToDelete);
-                }
-            }
+        List<Integer> ids = Arrays.stream(text.split("\\n")).map(Integer::parseInt).toList();
+        List<Integer> deleted = deleteOwned(ids, chatId, chatService.isAdmin(userId));
+        if (deleted.isEmpty()) {
+            return;
         }
+        invalidationBus.publish(CacheInvalidationBus.NOTIFICATION, deleted);
+        afterCommit(() -> deleted.forEach(id -> {
+            scheduleIndex.remove(id);
+            exclusionRuleCache.evict(id);
+        }));
+    }
+
+    // Deletes the given notifications, unless they belong to another chat and the request doesn't come from
+    // an admin, and returns the IDs actually deleted. Must run in the caller's transaction, so that the
+    // invalidation and the cache updates registered for its commit match what was deleted.
+    private List<Integer> deleteOwned(List<Integer> ids, long chatId, boolean admin) {
+        return jdbcTemplate.query("""
+                        DELETE FROM notifications
+                        WHERE id = ANY(?) AND (? OR chatid = ?)
+                        RETURNING id""",
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("integer", ids.toArray()));
+                    ps.setBoolean(2, admin);
+                    ps.setLong(3, chatId);
+                },
+                (rs, rowNum) -> rs.getInt(1));
     }
 
     @Transactional
@@ -85,6 +125,10 @@ public class NotificationService {
                 return "Error editing notification. " + parseResult.getErrorMessage();
             }
             Notification notificationUpdated = parseResult.getNotification();
+            String scheduleError = applyFirstFireTime(notificationUpdated);
+            if (scheduleError != null) {
+                return "Error editing notification. " + scheduleError;
+            }
 
             Notification notificationCurrent = findById(id).orElse(null);
 
@@ -104,20 +148,93 @@ public class NotificationService {
         }
     }
 
+    // For a cron schedule, the stored datetime becomes its first fire time at or after the entered date and time.
+    // From then on the scheduler only advances it after each fire, so the expression is never evaluated on a tick.
+    private String applyFirstFireTime(Notification notification) {
+        if (!CronRecurrence.isCron(notification.getRepetition())) {
+            return null;
+        }
+        try {
+            CronRecurrence recurrence = CronRecurrence.parse(notification.getRepetition(), telegramDailyBotProperties.getTimeZone());
+            ZonedDateTime firstFire = recurrence.nextAfter(notification.getDatetime(), notification.getDatetime().minusSeconds(1));
+            if (firstFire == null) {
+                return "The cron expression never fires: " + notification.getRepetition();
+            }
+            notification.setDatetime(firstFire);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return "Error parsing cron expression: " + notification.getRepetition();
+        }
+    }
+
+    // Writes the new datetimes of rescheduled notifications as one JDBC batch and removes
+    // the deleted ones with a single bulk delete
+    @Transactional
+    public void applyScheduleChanges(Map<Integer, ZonedDateTime> reschedules, Collection<Integer> deletions, List<OutboxMessage> messages) {
+        // The messages are queued in the same transaction, so they exist if and only if the reschedule is committed
+        outboxService.enqueue(messages);
+        if (!reschedules.isEmpty()) {
+            List<Map.Entry<Integer, ZonedDateTime>> entries = new ArrayList<>(reschedules.entrySet());
+            jdbcTemplate.batchUpdate("UPDATE notifications SET datetime = ? WHERE id = ?", entries, entries.size(),
+                    (ps, entry) -> {
+                        ps.setObject(1, entry.getValue().toOffsetDateTime());
+                        ps.setInt(2, entry.getKey());
+                    });
+        }
+        if (!deletions.isEmpty()) {
+            notificationRepository.deleteAllByIdInBatch(deletions);
+        }
+        // Only the deletions are published. A peer whose index still holds an old due time finds the new one
+        // when it loads the notification and reindexes it, and the exclusion rules don't change on a reschedule.
+        invalidationBus.publish(CacheInvalidationBus.NOTIFICATION, deletions);
+        afterCommit(() -> {
+            reschedules.forEach(scheduleIndex::schedule);
+            deletions.forEach(id -> {
+                scheduleIndex.remove(id);
+                exclusionRuleCache.evict(id);
+            });
+        });
+    }
+
     public Notification save(Notification notification) {
-        return notificationRepository.save(notification);
+        Notification saved = notificationRepository.save(notification);
+        invalidationBus.publish(CacheInvalidationBus.NOTIFICATION, saved.getId());
+        afterCommit(() -> scheduleIndex.schedule(saved));
+        return saved;
     }
 
     public List<Notification> findAll() {
         return notificationRepository.findAll();
     }
 
+    public List<Notification> findAllById(Iterable<Integer> ids) {
+        return notificationRepository.findAllById(ids);
+    }
+
+    public Stream<Notification> streamDueWindow(ZonedDateTime from, ZonedDateTime to) {
+        return notificationRepository.streamByDatetimeWindow(from, to);
+    }
+
+    public List<Notification> claimDueWindow(ZonedDateTime afterDatetime, int afterId, ZonedDateTime to, int limit) {
+        return notificationRepository.claimDueWindow(afterDatetime, afterId, to, limit);
+    }
+
     public void delete(Notification notification) {
         notificationRepository.delete(notification);
+        invalidationBus.publish(CacheInvalidationBus.NOTIFICATION, notification.getId());
+        afterCommit(() -> {
+            scheduleIndex.remove(notification.getId());
+            exclusionRuleCache.evict(notification.getId());
+        });
     }
 
     public void deleteById(int id) {
         notificationRepository.deleteById(id);
+        invalidationBus.publish(CacheInvalidationBus.NOTIFICATION, id);
+        afterCommit(() -> {
+            scheduleIndex.remove(id);
+            exclusionRuleCache.evict(id);
+        });
     }
 
     public Optional<Notification> findById(int id) {
@@ -186,4 +303,19 @@ public class NotificationService {
         }
         return sb.toString();
     }
+
+    // The schedule index is only updated once the change is committed. Otherwise the precise timer may fire
+    // for a notification that the dispatch can't load yet, or load a datetime that is about to be replaced.
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
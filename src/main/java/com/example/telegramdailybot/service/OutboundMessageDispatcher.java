@@ -0,0 +1,279 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.TelegramDailyBot;
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// All outgoing chat messages go through this dispatcher, which paces them to stay within Telegram's limits:
+// a global token bucket (about 30 messages per second) and a per-chat interval (1 message per second in private
+// chats, 20 messages per minute in groups). Requests are sent asynchronously with a bounded number in flight,
+// but at most one per chat, so messages of one chat are still sent in order. When Telegram still answers
+// with 429 Too Many Requests, the chat is paused for the returned retry_after and the message is sent again.
+@Service
+public class OutboundMessageDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundMessageDispatcher.class);
+    private final ObjectProvider<TelegramDailyBot> telegramDailyBot;
+    private final TelegramDailyBotProperties.Outbound limits;
+
+    private final Map<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+    // Chats with pending messages, each becoming available once its own rate limit allows the next send
+    private final DelayQueue<ReadyChat> readyChats = new DelayQueue<>();
+    private final TokenBucket globalBucket;
+    private final Semaphore inFlight;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private long sentAtLastReport;
+    private Thread worker;
+
+    @Autowired
+    public OutboundMessageDispatcher(ObjectProvider<TelegramDailyBot> telegramDailyBot, TelegramDailyBotProperties properties) {
+        this.telegramDailyBot = telegramDailyBot;
+        this.limits = properties.getOutbound();
+        this.globalBucket = new TokenBucket(limits.getGlobalPerSecond());
+        this.inFlight = new Semaphore(limits.getMaxInFlight());
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = new Thread(this::run, "telegram-outbound");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.interrupt();
+    }
+
+    public CompletableFuture<Message> send(SendMessage message) {
+        long chatId = Long.parseLong(message.getChatId());
+        PendingMessage pending = new PendingMessage(message, new CompletableFuture<>());
+        ChatQueue chat;
+        boolean wasIdle;
+        while (true) {
+            chat = chats.computeIfAbsent(chatId, id -> new ChatQueue(chatIntervalNanos(id)));
+            synchronized (chat) {
+                // Lost a race with evictIdleChats, which already dropped this queue
+                if (chat.evicted) {
+                    continue;
+                }
+                chat.messages.add(pending);
+                wasIdle = !chat.active;
+                chat.active = true;
+                break;
+            }
+        }
+        queueDepth.incrementAndGet();
+        if (wasIdle) {
+            readyChats.put(new ReadyChat(chat, chat.nextSendAt));
+        }
+        return pending.future();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getInFlightCount() {
+        return limits.getMaxInFlight() - inFlight.availablePermits();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    // Drops the queues of chats with nothing to send whose rate limit interval has passed, so the map doesn't
+    // keep every chat the bot ever messaged. A later message just creates a fresh queue.
+    @Scheduled(fixedRate = 60000)
+    public void evictIdleChats() {
+        long now = System.nanoTime();
+        chats.forEach((chatId, chat) -> {
+            synchronized (chat) {
+                if (!chat.active && chat.nextSendAt - now <= 0) {
+                    chat.evicted = true;
+                    chats.remove(chatId, chat);
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void reportThroughput() {
+        long total = sent.sum();
+        long lastMinute = total - sentAtLastReport;
+        sentAtLastReport = total;
+        if (lastMinute > 0 || queueDepth.get() > 0) {
+            logger.info("Outbound messages: {} sent in the last minute, {} queued, {} in flight, {} throttled by Telegram, {} failed",
+                    lastMinute, queueDepth.get(), getInFlightCount(), throttled.sum(), failed.sum());
+        }
+    }
+
+    private long chatIntervalNanos(long chatId) {
+        // Group and channel IDs are negative
+        return chatId < 0
+                ? TimeUnit.MINUTES.toNanos(1) / limits.getGroupChatPerMinute()
+                : TimeUnit.SECONDS.toNanos(1) / limits.getPrivateChatPerSecond();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ChatQueue chat = readyChats.take().chat();
+                long globalWait = globalBucket.acquire(System.nanoTime());
+                if (globalWait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(globalWait);
+                }
+                inFlight.acquire();
+                sendNext(chat);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendNext(ChatQueue chat) {
+        PendingMessage pending;
+        synchronized (chat) {
+            pending = chat.messages.peek();
+        }
+        long now = System.nanoTime();
+        chat.nextSendAt = now + chat.intervalNanos;
+        CompletableFuture<Message> request;
+        try {
+            request = telegramDailyBot.getObject().executeAsync(pending.message());
+        } catch (TelegramApiException | RuntimeException e) {
+            request = CompletableFuture.failedFuture(e);
+        }
+        request.whenComplete((result, error) -> {
+            inFlight.release();
+            onCompleted(chat, pending, now, result, error);
+        });
+    }
+
+    // Runs on the thread that completed the request; the chat stays active until its next message is queued again
+    private void onCompleted(ChatQueue chat, PendingMessage pending, long sentAt, Message result, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        boolean done = true;
+        if (cause == null) {
+            sent.increment();
+            pending.future().complete(result);
+        } else if (cause instanceof TelegramApiRequestException e && isRateLimited(e)) {
+            // Keep the message at the head of the chat queue and try again once Telegram allows it
+            int retryAfter = e.getParameters().getRetryAfter();
+            throttled.increment();
+            chat.nextSendAt = sentAt + TimeUnit.SECONDS.toNanos(retryAfter);
+            done = false;
+            logger.warn("Rate limited by Telegram in chat {}, retrying in {} s", pending.message().getChatId(), retryAfter);
+        } else {
+            fail(pending, cause);
+        }
+        synchronized (chat) {
+            if (done) {
+                chat.messages.poll();
+                queueDepth.decrementAndGet();
+            }
+            if (chat.messages.isEmpty()) {
+                chat.active = false;
+                return;
+            }
+        }
+        readyChats.put(new ReadyChat(chat, chat.nextSendAt));
+    }
+
+    private static boolean isRateLimited(TelegramApiRequestException e) {
+        return e.getErrorCode() != null && e.getErrorCode() == 429
+                && e.getParameters() != null && e.getParameters().getRetryAfter() != null;
+    }
+
+    private void fail(PendingMessage pending, Throwable e) {
+        failed.increment();
+        pending.future().completeExceptionally(e);
+    }
+
+    private record PendingMessage(SendMessage message, CompletableFuture<Message> future) {
+    }
+
+    private static class ChatQueue {
+        private final Queue<PendingMessage> messages = new ArrayDeque<>();
+        private final long intervalNanos;
+        // Whether the chat is in readyChats or being sent, guarded by the ChatQueue itself
+        private boolean active;
+        // Set once the idle queue was removed from the map, guarded by the ChatQueue itself
+        private boolean evicted;
+        // Earliest time the next message of this chat may be sent. Only written while the chat is active,
+        // by the worker thread or the completion of the chat's single request in flight.
+        private volatile long nextSendAt = System.nanoTime();
+
+        ChatQueue(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+        }
+    }
+
+    private record ReadyChat(ChatQueue chat, long readyAtNanos) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    // A token bucket holding up to one second worth of sends, only used from the worker thread
+    private static class TokenBucket {
+        private final double perNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(int perSecond) {
+            this.perNano = perSecond / 1e9;
+            this.capacity = perSecond;
+            this.tokens = perSecond;
+        }
+
+        // Takes a token and returns how long to wait (in nanoseconds) before it may be used
+        long acquire(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+            refilledAt = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / perNano);
+        }
+    }
+}
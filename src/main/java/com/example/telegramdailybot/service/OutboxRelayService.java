@@ -0,0 +1,133 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.OutboxMessage;
+import com.example.telegramdailybot.model.OutboxStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Delivers the messages queued in the outbox table. Claimed batches are handed to the outbound dispatcher,
+// and the outcome of each send is written back on the next run: sent, retried later with exponential
+// backoff, or failed for good once the attempts are used up or Telegram rejects the message itself.
+@Service
+public class OutboxRelayService {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelayService.class);
+    private static final long MAX_BACKOFF_SECONDS = 3600;
+    private final OutboxService outboxService;
+    private final OutboundMessageDispatcher outboundMessageDispatcher;
+    private final TelegramDailyBotProperties.Outbox settings;
+    private final SchedulerMetrics schedulerMetrics;
+    private final Clock clock;
+
+    // Sends completed by the dispatcher whose outcome has not been written yet
+    private final Queue<OutboxMessage> completed = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    public OutboxRelayService(OutboxService outboxService, OutboundMessageDispatcher outboundMessageDispatcher,
+                              TelegramDailyBotProperties properties, SchedulerMetrics schedulerMetrics, Clock clock) {
+        this.outboxService = outboxService;
+        this.outboundMessageDispatcher = outboundMessageDispatcher;
+        this.settings = properties.getOutbox();
+        this.schedulerMetrics = schedulerMetrics;
+        this.clock = clock;
+    }
+
+    // Runs every second, and is also called by the scheduler right after it has queued new messages
+    @Scheduled(fixedDelay = 1000, initialDelay = 1000)
+    public synchronized void drain() {
+        recordOutcomes();
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        // Only claim more while the dispatcher keeps up, so that claimed messages don't outlive their lease in its queue
+        while (outboundMessageDispatcher.getQueueDepth() < settings.getBatchSize()) {
+            List<OutboxMessage> claimed = outboxService.claim(now, settings.getBatchSize(), now.plusSeconds(settings.getLeaseSeconds()));
+            claimed.forEach(this::send);
+            if (claimed.size() < settings.getBatchSize()) {
+                return;
+            }
+        }
+    }
+
+    @Scheduled(fixedRate = 3600000, initialDelay = 60000)
+    public void deleteDelivered() {
+        int deleted = outboxService.deleteSentBefore(ZonedDateTime.now(clock).minusDays(settings.getRetentionDays()));
+        if (deleted > 0) {
+            logger.info("Deleted {} delivered outbox messages", deleted);
+        }
+    }
+
+    private void send(OutboxMessage outboxMessage) {
+        SendMessage message = new SendMessage();
+        message.setChatId(outboxMessage.getChatid().toString());
+        message.setText(outboxMessage.getText());
+        message.setDisableWebPagePreview(true);
+        outboundMessageDispatcher.send(message).whenComplete((result, error) -> {
+            // Only bookkeeping on the dispatcher thread, the database is updated by the relay
+            ZonedDateTime now = ZonedDateTime.now(clock);
+            outboxMessage.setAttempts(outboxMessage.getAttempts() + 1);
+            if (error == null) {
+                outboxMessage.setStatus(OutboxStatus.SENT);
+                outboxMessage.setSentAt(now);
+                outboxMessage.setLastError(null);
+                if (outboxMessage.getDueAt() != null) {
+                    schedulerMetrics.recordSend(now.toInstant().toEpochMilli() - outboxMessage.getDueAt().toInstant().toEpochMilli());
+                }
+            } else {
+                fail(outboxMessage, error instanceof CompletionException ? error.getCause() : error, now);
+            }
+            completed.add(outboxMessage);
+        });
+    }
+
+    private void fail(OutboxMessage outboxMessage, Throwable error, ZonedDateTime now) {
+        String description = String.valueOf(error.getMessage());
+        outboxMessage.setLastError(description.length() > 1000 ? description.substring(0, 1000) : description);
+        if (isPermanent(error) || outboxMessage.getAttempts() >= settings.getMaxAttempts()) {
+            outboxMessage.setStatus(OutboxStatus.FAILED);
+            logger.error("Giving up on outbox message {} to chat {} after {} attempts",
+                    outboxMessage.getId(), outboxMessage.getChatid(), outboxMessage.getAttempts(), error);
+            return;
+        }
+        // 2, 4, 8, ... seconds, capped at one hour
+        long backoffSeconds = Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(outboxMessage.getAttempts(), 12));
+        outboxMessage.setStatus(OutboxStatus.PENDING);
+        outboxMessage.setNextAttemptAt(now.plusSeconds(backoffSeconds));
+        logger.warn("Sending outbox message {} to chat {} failed, retrying in {} s: {}",
+                outboxMessage.getId(), outboxMessage.getChatid(), backoffSeconds, description);
+    }
+
+    // Telegram rejected the request itself (e.g. the chat does not exist or the bot was blocked), so retrying won't help.
+    // Rate limiting (429) is already retried by the dispatcher.
+    private static boolean isPermanent(Throwable error) {
+        return error instanceof TelegramApiRequestException requestException
+                && requestException.getErrorCode() != null
+                && (requestException.getErrorCode() == 400 || requestException.getErrorCode() == 403);
+    }
+
+    private void recordOutcomes() {
+        List<OutboxMessage> outcomes = new ArrayList<>();
+        OutboxMessage outcome;
+        while ((outcome = completed.poll()) != null) {
+            outcomes.add(outcome);
+        }
+        try {
+            outboxService.recordOutcomes(outcomes);
+        } catch (RuntimeException e) {
+            // Keep the outcomes for the next run; until then the messages stay leased
+            completed.addAll(outcomes);
+            throw e;
+        }
+    }
+}
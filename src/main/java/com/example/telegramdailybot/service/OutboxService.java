@@ -0,0 +1,79 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.OutboxMessage;
+import com.example.telegramdailybot.model.OutboxStatus;
+import com.example.telegramdailybot.repository.OutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Service
+public class OutboxService {
+    private final OutboxRepository outboxRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+
+    @Autowired
+    public OutboxService(OutboxRepository outboxRepository, JdbcTemplate jdbcTemplate, Clock clock) {
+        this.outboxRepository = outboxRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+    }
+
+    // Queues the messages for delivery. Joins the caller's transaction, so the messages are only
+    // delivered if whatever produced them is committed as well.
+    @Transactional
+    public void enqueue(List<OutboxMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        jdbcTemplate.batchUpdate("INSERT INTO outbox (chatid, text, status, attempts, next_attempt_at, due_at, created_at) VALUES (?, ?, ?, 0, ?, ?, ?)",
+                messages, messages.size(), (ps, message) -> {
+                    ps.setLong(1, message.getChatid());
+                    ps.setString(2, message.getText());
+                    ps.setString(3, OutboxStatus.PENDING.name());
+                    ps.setObject(4, now.toOffsetDateTime());
+                    ps.setObject(5, message.getDueAt() != null ? message.getDueAt().toOffsetDateTime() : null);
+                    ps.setObject(6, now.toOffsetDateTime());
+                });
+    }
+
+    // Locks the due pending messages and leases them until the given time, so that they are neither
+    // claimed again by another relay nor lost if this instance dies before recording the outcome
+    @Transactional
+    public List<OutboxMessage> claim(ZonedDateTime now, int limit, ZonedDateTime leaseUntil) {
+        List<OutboxMessage> claimed = outboxRepository.claimPending(now, limit);
+        if (!claimed.isEmpty()) {
+            outboxRepository.lease(claimed.stream().map(OutboxMessage::getId).toList(), leaseUntil);
+        }
+        return claimed;
+    }
+
+    // Writes the delivery outcome of the given messages in one batch
+    @Transactional
+    public void recordOutcomes(Collection<OutboxMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("UPDATE outbox SET status = ?, attempts = ?, next_attempt_at = ?, sent_at = ?, last_error = ? WHERE id = ?",
+                messages, messages.size(), (ps, message) -> {
+                    ps.setString(1, message.getStatus().name());
+                    ps.setInt(2, message.getAttempts());
+                    ps.setObject(3, message.getNextAttemptAt().toOffsetDateTime());
+                    ps.setObject(4, message.getSentAt() != null ? message.getSentAt().toOffsetDateTime() : null);
+                    ps.setString(5, message.getLastError());
+                    ps.setLong(6, message.getId());
+                });
+    }
+
+    public int deleteSentBefore(ZonedDateTime before) {
+        return outboxRepository.deleteSentBefore(before);
+    }
+}
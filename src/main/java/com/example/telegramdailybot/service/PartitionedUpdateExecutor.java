@@ -0,0 +1,110 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Processes incoming updates on a fixed number of single-threaded partitions, keyed by chat ID.
+// Updates of one chat always land on the same partition and are handled in order, while different
+// chats are handled in parallel, so a slow chat only delays the chats sharing its partition.
+@Component
+public class PartitionedUpdateExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedUpdateExecutor.class);
+    private final Partition[] partitions;
+
+    @Autowired
+    public PartitionedUpdateExecutor(TelegramDailyBotProperties properties) {
+        int count = properties.getUpdates().getPartitions();
+        partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = new Partition(i);
+        }
+    }
+
+    public void execute(long chatId, Runnable task) {
+        int hash = Long.hashCode(chatId);
+        partitions[Math.floorMod(hash ^ (hash >>> 16), partitions.length)].execute(task);
+    }
+
+    public List<PartitionStats> getStats() {
+        List<PartitionStats> stats = new ArrayList<>(partitions.length);
+        for (Partition partition : partitions) {
+            stats.add(partition.stats());
+        }
+        return stats;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void reportStats() {
+        for (PartitionStats stats : getStats()) {
+            if (stats.queueDepth() > 0 || stats.maxLatencyMillis() > 1000) {
+                logger.info("Update partition {}: {} queued, {} processed, latency avg {} ms, max {} ms",
+                        stats.partition(), stats.queueDepth(), stats.processed(), stats.averageLatencyMillis(), stats.maxLatencyMillis());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Partition partition : partitions) {
+            partition.executor.shutdown();
+        }
+    }
+
+    // Latency is measured from the moment an update is queued until its handling has finished
+    public record PartitionStats(int partition, int queueDepth, long processed, long averageLatencyMillis, long maxLatencyMillis) {
+    }
+
+    private static class Partition {
+        private final int index;
+        private final ThreadPoolExecutor executor;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder totalLatencyNanos = new LongAdder();
+        private final LongAccumulator maxLatencyNanos = new LongAccumulator(Long::max, 0);
+
+        Partition(int index) {
+            this.index = index;
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "update-partition-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void execute(Runnable task) {
+            long queuedAt = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error handling update on partition {}", index, e);
+                } finally {
+                    long latency = System.nanoTime() - queuedAt;
+                    processed.increment();
+                    totalLatencyNanos.add(latency);
+                    maxLatencyNanos.accumulate(latency);
+                }
+            });
+        }
+
+        PartitionStats stats() {
+            long count = processed.sum();
+            long averageNanos = count == 0 ? 0 : totalLatencyNanos.sum() / count;
+            return new PartitionStats(index, executor.getQueue().size(), count,
+                    TimeUnit.NANOSECONDS.toMillis(averageNanos), TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()));
+        }
+    }
+}
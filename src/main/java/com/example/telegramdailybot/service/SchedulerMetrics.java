@@ -0,0 +1,92 @@
+package com.example.telegramdailybot.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of the notification scheduler, updated from the dispatch threads
+@Component
+public class SchedulerMetrics {
+    private static final int TICK_SAMPLES = 1024;
+
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Long::max, 0);
+    private final LongAdder misfires = new LongAdder();
+    private final LongAdder duplicateFires = new LongAdder();
+    // The scheduled time (epoch millis) of the last fired occurrence of every notification
+    private final Map<Integer, Long> lastFired = new ConcurrentHashMap<>();
+
+    // Durations of the most recent ticks, used as a ring buffer
+    private final long[] tickNanos = new long[TICK_SAMPLES];
+    private long ticks;
+
+    // Records a sent notification and the delay between its scheduled time and the actual send
+    public void recordSend(long lagMillis) {
+        sends.increment();
+        totalLagMillis.add(lagMillis);
+        maxLagMillis.accumulate(lagMillis);
+    }
+
+    // Records that an occurrence of a notification was fired, detecting occurrences fired twice
+    public void recordFire(int notificationId, long scheduledAtMillis) {
+        Long previous = lastFired.put(notificationId, scheduledAtMillis);
+        if (previous != null && previous == scheduledAtMillis) {
+            duplicateFires.increment();
+        }
+    }
+
+    public void recordMisfire() {
+        misfires.increment();
+    }
+
+    public synchronized void recordTick(long nanos) {
+        tickNanos[(int) (ticks % TICK_SAMPLES)] = nanos;
+        ticks++;
+    }
+
+    // Returns the given percentile (0-100) of the recent tick durations in milliseconds
+    public synchronized double getTickPercentileMillis(double percentile) {
+        int samples = (int) Math.min(ticks, TICK_SAMPLES);
+        if (samples == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(tickNanos, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(0, Math.min(index, samples - 1))] / 1_000_000.0;
+    }
+
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    public long getSends() {
+        return sends.sum();
+    }
+
+    public long getAverageLagMillis() {
+        long count = sends.sum();
+        return count == 0 ? 0 : totalLagMillis.sum() / count;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getMisfires() {
+        return misfires.sum();
+    }
+
+    public long getDuplicateFires() {
+        return duplicateFires.sum();
+    }
+
+    public void forget(int notificationId) {
+        lastFired.remove(notificationId);
+    }
+}
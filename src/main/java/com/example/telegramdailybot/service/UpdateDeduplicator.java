@@ -0,0 +1,124 @@
+package com.example.telegramdailybot.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Drops updates that were already received, e.g. redelivered after a restart or retried by Telegram in
+// webhook mode. The most recent update IDs are kept in a ring buffer indexed by the ID itself, so every
+// check is O(1). The highest ID is persisted in the bot_state table as a low-water mark for the next start.
+@Component
+public class UpdateDeduplicator {
+    private static final Logger logger = LoggerFactory.getLogger(UpdateDeduplicator.class);
+    private static final int WINDOW = 4096;
+    private static final String LAST_UPDATE_ID = "last_update_id";
+    // Telegram starts a new, random update ID sequence after a week without updates
+    private static final Duration MARK_EXPIRY = Duration.ofDays(7);
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+
+    private final int[] seen = new int[WINDOW];
+    // Everything at or below the mark restored at startup counts as seen
+    private long restoredMark = NONE;
+    private long highest = NONE;
+    private long persisted = NONE;
+    private long duplicates;
+
+    @Autowired
+    public UpdateDeduplicator(JdbcTemplate jdbcTemplate, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+        Arrays.fill(seen, -1);
+    }
+
+    @PostConstruct
+    public void load() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT value, updated_at FROM bot_state WHERE key = ?", LAST_UPDATE_ID);
+        if (rows.isEmpty()) {
+            return;
+        }
+        Instant updatedAt = ((Timestamp) rows.get(0).get("updated_at")).toInstant();
+        if (updatedAt.isBefore(clock.instant().minus(MARK_EXPIRY))) {
+            return;
+        }
+        long mark = ((Number) rows.get(0).get("value")).longValue();
+        synchronized (this) {
+            restoredMark = mark;
+            highest = mark;
+            persisted = mark;
+        }
+        logger.info("Ignoring updates up to update_id {} received before the restart", mark);
+    }
+
+    // Returns the updates of the batch that were not received before, in their original order
+    public synchronized List<Update> filterNew(List<Update> updates) {
+        List<Update> fresh = new ArrayList<>(updates.size());
+        for (Update update : updates) {
+            if (markSeen(update.getUpdateId())) {
+                fresh.add(update);
+            }
+        }
+        return fresh;
+    }
+
+    public synchronized boolean isNew(Update update) {
+        return markSeen(update.getUpdateId());
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    private boolean markSeen(int updateId) {
+        int slot = updateId & (WINDOW - 1);
+        if (highest != NONE && updateId <= highest - WINDOW) {
+            // Far behind anything seen recently, so Telegram has started a new update ID sequence
+            Arrays.fill(seen, -1);
+            restoredMark = NONE;
+            highest = NONE;
+        } else if (updateId <= restoredMark || seen[slot] == updateId) {
+            duplicates++;
+            return false;
+        }
+        seen[slot] = updateId;
+        highest = Math.max(highest, updateId);
+        return true;
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    @PreDestroy
+    public void persist() {
+        long mark;
+        synchronized (this) {
+            if (highest == NONE || highest == persisted) {
+                return;
+            }
+            mark = highest;
+        }
+        jdbcTemplate.update("""
+                INSERT INTO bot_state (key, value, updated_at) VALUES (?, ?, ?)
+                ON CONFLICT (key) DO UPDATE SET value = EXCLUDED.value, updated_at = EXCLUDED.updated_at""",
+                LAST_UPDATE_ID, mark, Timestamp.from(clock.instant()));
+        synchronized (this) {
+            persisted = mark;
+        }
+    }
+}
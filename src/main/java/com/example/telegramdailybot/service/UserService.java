@@ -3,22 +3,42 @@ package com.example.telegramdailybot.service;
 import com.example.telegramdailybot.model.User;
 import com.example.telegramdailybot.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class UserService {
+    private static final int DRAW_LOCK_STRIPES = 64;
+    private static final int MAX_DRAW_ATTEMPTS = 5;
+    // Returned by a draw in a chat without users, as opposed to null for a draw lost to a concurrent one
+    private static final User NO_USERS = new User();
 
     private final UserRepository userRepository;
     private final ChatService chatService;
+    private final TransactionTemplate transactionTemplate;
+    // Draws of the same chat run one at a time on this instance, draws of different chats mostly in parallel
+    private final ReentrantLock[] drawLocks = new ReentrantLock[DRAW_LOCK_STRIPES];
 
     @Autowired
-    public UserService(UserRepository userRepository, ChatService chatService) {
+    public UserService(UserRepository userRepository, ChatService chatService, PlatformTransactionManager transactionManager) {
 
         this.userRepository = userRepository;
         this.chatService = chatService;
+        // A draw commits on its own, also when the scheduler makes it within the transaction of a tick or batch.
+        // Otherwise a draw aborted by Postgres would abort the outer transaction as well, and the lock below
+        // would be released before the draw is committed.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < drawLocks.length; i++) {
+            drawLocks[i] = new ReentrantLock();
+        }
     }
 
     public User save(User user) {
@@ -48,18 +68,8 @@ public class UserService {
 
     @Transactional
     public void deleteUsersFromText(String text, long chatId, long userId) {
-        String[] lines = text.split("\\n");
-
-        for (String line : lines) {
-            int userIdtoDelete = Integer.parseInt(line);
-            User user = findById(userIdtoDelete).orElse(null);
-
-            if (user != null) {
-                if (chatService.isAdmin(userId) || user.getChatid() == chatId) {
-                    deleteById(userIdtoDelete);
-                }
-            }
-        }
+        List<Integer> ids = Arrays.stream(text.split("\\n")).map(Integer::parseInt).toList();
+        userRepository.deleteOwned(ids, chatId, chatService.isAdmin(userId));
     }
 
     @Transactional
@@ -98,43 +108,43 @@ public class UserService {
         return userRepository.findByChatid(chatId);
     }
 
+    @Transactional
     public void resetWinners(long chatId) {
-        List<User> winners = findByChatid(chatId);
-        winners.forEach(user -> {
-            user.setHaswon(false);
-            save(user);
-        });
+        userRepository.resetWinners(chatId);
     }
 
+    // The lock is held until the draw is committed, so the next draw of the chat on this instance always sees it.
+    // Any other concurrent draw, e.g. by another instance, is caught by the version check of drawWinner and repeated.
     public User findWinner(Long chatId) {
-        List<User> users = findByChatid(chatId);
-
-        if (users.isEmpty()) {
-            return null;
-        }
-
-        List<User> usersWithoutWin = new ArrayList<>();
-        for (User user : users) {
-            if (!user.isHaswon()) {
-                usersWithoutWin.add(user);
-            }
-        }
-
-        if (usersWithoutWin.isEmpty()) {
-            for (User user : users) {
-                user.setHaswon(false);
-                save(user);
+        ReentrantLock lock = drawLockFor(chatId);
+        lock.lock();
+        try {
+            for (int attempt = 1; attempt <= MAX_DRAW_ATTEMPTS; attempt++) {
+                User winner;
+                try {
+                    winner = transactionTemplate.execute(status -> userRepository.drawWinner(chatId)
+                            .orElseGet(() -> userRepository.existsByChatid(chatId) ? null : NO_USERS));
+                } catch (ConcurrencyFailureException e) {
+                    // Two draws starting a new round update all rows of the chat and may deadlock, which
+                    // Postgres resolves by aborting one of them. That draw was lost just the same.
+                    continue;
+                }
+                if (winner == NO_USERS) {
+                    return null;
+                }
+                if (winner != null) {
+                    return winner;
+                }
             }
-            usersWithoutWin.addAll(users);
+            throw new IllegalStateException("Could not draw a winner in chat " + chatId + " after " + MAX_DRAW_ATTEMPTS + " attempts");
+        } finally {
+            lock.unlock();
         }
+    }
 
-        Random random = new Random();
-        int winnerIndex = random.nextInt(usersWithoutWin.size());
-        User winner = usersWithoutWin.get(winnerIndex);
-        winner.setHaswon(true);
-        save(winner);
-
-        return winner;
+    private ReentrantLock drawLockFor(long chatId) {
+        int hash = Long.hashCode(chatId);
+        return drawLocks[Math.floorMod(hash ^ (hash >>> 16), drawLocks.length)];
     }
 
     public String generateUserListMessage(Long chatId, List<String> fieldsToDisplay, Map<String, String> customHeaders) {
@@ -19,6 +19,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BotUtils {
+    // Telegram's limit for the text of a single message
+    public static final int MAX_MESSAGE_LENGTH = 4096;
 
     public static ParseResult parseNotificationText(String text, ZoneId timeZone) {
         Pattern notificationPattern = Pattern.compile("Notification text:\\s?(.+?)\\nDate and time:\\s?(.+?)\\nFrequency:\\s?(.+?)\\nExceptions:(.*)", Pattern.DOTALL);
@@ -90,5 +92,45 @@ public class BotUtils {
         return inlineKeyboardMarkup;
     }
 
-}
+    // Joins the texts, separated by blank lines, into as few messages as possible that each fit into maxLength
+    public static List<String> joinMessages(List<String> texts, int maxLength) {
+        List<String> messages = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String text : texts) {
+            for (String part : splitMessage(text, maxLength)) {
+                if (!current.isEmpty() && current.length() + 2 + part.length() > maxLength) {
+                    messages.add(current.toString());
+                    current.setLength(0);
+                }
+                if (!current.isEmpty()) {
+                    current.append("\n\n");
+                }
+                current.append(part);
+            }
+        }
+        if (!current.isEmpty()) {
+            messages.add(current.toString());
+        }
+        return messages;
+    }
 
+    // Splits a text longer than maxLength into parts, preferably at line breaks
+    public static List<String> splitMessage(String text, int maxLength) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int end = text.lastIndexOf('\n', start + maxLength);
+            if (end <= start) {
+                end = start + maxLength;
+                // Don't cut a surrogate pair in half
+                if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            parts.add(text.substring(start, end));
+            start = text.charAt(end) == '\n' ? end + 1 : end;
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+}
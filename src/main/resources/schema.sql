@@ -20,6 +20,17 @@ SET default_tablespace = '';
 
 SET default_table_access_method = heap;
 
+--
+-- Name: bot_state; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.bot_state (
+    key character varying(64) NOT NULL,
+    value bigint NOT NULL,
+    updated_at timestamp(6) with time zone NOT NULL
+);
+
+
 --
 -- Name: chats; Type: TABLE; Schema: public; Owner: -
 --
@@ -31,6 +42,18 @@ CREATE TABLE public.chats (
 );
 
 
+--
+-- Name: conversation_states; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.conversation_states (
+    chatid bigint NOT NULL,
+    userid bigint NOT NULL,
+    state character varying(64) NOT NULL,
+    expires_at timestamp(6) with time zone NOT NULL
+);
+
+
 --
 -- Name: notifications_id_seq; Type: SEQUENCE; Schema: public; Owner: -
 --
@@ -57,6 +80,36 @@ CREATE TABLE public.notifications (
 );
 
 
+--
+-- Name: outbox_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE public.outbox_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: outbox; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.outbox (
+    id bigint DEFAULT nextval('public.outbox_id_seq'::regclass) NOT NULL,
+    chatid bigint NOT NULL,
+    text character varying(4096) NOT NULL,
+    status character varying(16) NOT NULL,
+    attempts integer DEFAULT 0 NOT NULL,
+    next_attempt_at timestamp(6) with time zone NOT NULL,
+    due_at timestamp(6) with time zone,
+    created_at timestamp(6) with time zone NOT NULL,
+    sent_at timestamp(6) with time zone,
+    last_error character varying(1000)
+);
+
+
 --
 -- Name: users_id_seq; Type: SEQUENCE; Schema: public; Owner: -
 --
@@ -78,10 +131,19 @@ CREATE TABLE public.users (
     name character varying(255) NOT NULL,
     username character varying(255),
     chatid bigint,
-    haswon boolean
+    haswon boolean,
+    version integer DEFAULT 0 NOT NULL
 );
 
 
+--
+-- Name: bot_state bot_state_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.bot_state
+    ADD CONSTRAINT bot_state_pkey PRIMARY KEY (key);
+
+
 --
 -- Name: chats chats_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -90,6 +152,14 @@ ALTER TABLE ONLY public.chats
     ADD CONSTRAINT chats_pkey PRIMARY KEY (telegramchatid);
 
 
+--
+-- Name: conversation_states conversation_states_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.conversation_states
+    ADD CONSTRAINT conversation_states_pkey PRIMARY KEY (chatid, userid);
+
+
 --
 -- Name: notifications notifications_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -98,6 +168,14 @@ ALTER TABLE ONLY public.notifications
     ADD CONSTRAINT notifications_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: outbox outbox_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.outbox
+    ADD CONSTRAINT outbox_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: users users_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -106,6 +184,34 @@ ALTER TABLE ONLY public.users
     ADD CONSTRAINT users_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: conversation_states_expires_at_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX conversation_states_expires_at_idx ON public.conversation_states USING btree (expires_at);
+
+
+--
+-- Name: notifications_datetime_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX notifications_datetime_idx ON public.notifications USING btree (datetime);
+
+
+--
+-- Name: outbox_pending_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX outbox_pending_idx ON public.outbox USING btree (next_attempt_at, id) WHERE ((status)::text = 'PENDING'::text);
+
+
+--
+-- Name: users_chatid_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX users_chatid_idx ON public.users USING btree (chatid);
+
+
 --
 -- Name: notifications fk_notifications_chats; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -0,0 +1,221 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.SchedulerMode;
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.controller.ChatManagementController;
+import com.example.telegramdailybot.controller.NotificationManagementController;
+import com.example.telegramdailybot.controller.UserManagementController;
+import com.example.telegramdailybot.model.User;
+import com.example.telegramdailybot.repository.NotificationRepository;
+import com.example.telegramdailybot.repository.OutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Runs several cluster mode schedulers against the same notifications at the same time. The claim loop locks
+// the due rows with FOR UPDATE SKIP LOCKED, so every notification must be queued in the outbox exactly once
+// per occurrence, however the batches are split between the instances, and more instances must get through
+// the due notifications faster.
+@Testcontainers(disabledWithoutDocker = true)
+class ClusterSchedulerTest extends PostgresTestSupport {
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    private static final ZonedDateTime NOW = ZonedDateTime.of(2023, 6, 1, 12, 0, 0, 0, ZONE);
+    private static final int NOTIFICATIONS = 2000;
+    private static final int INSTANCES = 4;
+    private static final int ROUNDS = 3;
+    private static final long DRAW_MILLIS = 2;
+    private static final long[] CHATS = {-1001L, -1002L, -1003L, -1004L, -1005L};
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+    @Autowired
+    private OutboxRepository outboxRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void createChats() {
+        jdbcTemplate.execute("TRUNCATE notifications, outbox, users, chats");
+        for (long chatId : CHATS) {
+            jdbcTemplate.update("INSERT INTO chats (telegramchatid, name) VALUES (?, ?)", chatId, "Chat " + chatId);
+        }
+    }
+
+    @Test
+    void sendsEveryNotificationOncePerOccurrence() throws Exception {
+        createNotifications("Notification ");
+        MutableClock clock = new MutableClock(NOW.toInstant(), ZONE);
+        List<NotificationSchedulerService> schedulers = createSchedulers(INSTANCES, clock, mock(UserManagementController.class));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            tickConcurrently(schedulers);
+
+            int expected = round + 1;
+            List<Map<String, Object>> counts = jdbcTemplate.queryForList("SELECT text, count(*) AS sends FROM outbox GROUP BY text");
+            assertThat(counts).hasSize(NOTIFICATIONS);
+            assertThat(counts).allSatisfy(count -> assertThat(((Number) count.get("sends")).intValue())
+                    .as("sends of %s in round %d", count.get("text"), round).isEqualTo(expected));
+            Integer stillDue = jdbcTemplate.queryForObject("SELECT count(*) FROM notifications WHERE datetime <= ?",
+                    Integer.class, Timestamp.from(clock.instant()));
+            assertThat(stillDue).isZero();
+
+            clock.advance(Duration.ofDays(1));
+        }
+    }
+
+    // A row locked by an instance whose batch then rolls back, or which dies, must be claimed by the next tick
+    // of another instance, although that instance already looked past the row's due time once
+    @Test
+    void claimsRowsSkippedWhileLockedByAnotherInstance() throws Exception {
+        createNotifications("Notification ");
+        MutableClock clock = new MutableClock(NOW.toInstant(), ZONE);
+        NotificationSchedulerService scheduler = createScheduler(clock, mock(UserManagementController.class));
+        Integer lockedId = jdbcTemplate.queryForObject("SELECT min(id) FROM notifications", Integer.class);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch rollBack = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> otherInstance = executor.submit(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                jdbcTemplate.queryForList("SELECT id FROM notifications WHERE id = ? FOR UPDATE", lockedId);
+                locked.countDown();
+                try {
+                    rollBack.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                status.setRollbackOnly();
+            }));
+            assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+            scheduler.checkAndSendNotifications();
+            assertThat(sendsOf(lockedId)).isZero();
+
+            rollBack.countDown();
+            otherInstance.get(10, TimeUnit.SECONDS);
+        } finally {
+            rollBack.countDown();
+            executor.shutdownNow();
+        }
+
+        clock.advance(Duration.ofMinutes(1));
+        scheduler.checkAndSendNotifications();
+        assertThat(sendsOf(lockedId)).isEqualTo(1);
+        Integer total = jdbcTemplate.queryForObject("SELECT count(*) FROM outbox", Integer.class);
+        assertThat(total).isEqualTo(NOTIFICATIONS);
+    }
+
+    // Every notification costs a winner draw, i.e. a database round trip of its own. Spread over several
+    // instances, the same due notifications must be sent in a fraction of the time a single instance takes.
+    @Test
+    void throughputScalesWithTheNumberOfInstances() throws Exception {
+        createNotifications("@name, notification ");
+        UserManagementController users = mock(UserManagementController.class);
+        User winner = new User();
+        winner.setName("Winner");
+        winner.setUsername("winner");
+        when(users.findWinner(anyLong())).thenAnswer(invocation -> {
+            Thread.sleep(DRAW_MILLIS);
+            return winner;
+        });
+        MutableClock clock = new MutableClock(NOW.toInstant(), ZONE);
+        List<NotificationSchedulerService> single = createSchedulers(1, clock, users);
+        List<NotificationSchedulerService> several = createSchedulers(INSTANCES, clock, users);
+
+        long singleMillis = tickConcurrently(single);
+        clock.advance(Duration.ofDays(1));
+        long severalMillis = tickConcurrently(several);
+
+        Integer total = jdbcTemplate.queryForObject("SELECT count(*) FROM outbox", Integer.class);
+        assertThat(total).isEqualTo(2 * NOTIFICATIONS);
+        assertThat(severalMillis)
+                .as("%d instances took %d ms, one instance %d ms", INSTANCES, severalMillis, singleMillis)
+                .isLessThan(singleMillis / 2);
+    }
+
+    // Due at different seconds of the last minute, so that the claim cursor has to page through ties
+    private void createNotifications(String textPrefix) {
+        List<Object[]> rows = IntStream.range(0, NOTIFICATIONS)
+                .mapToObj(i -> new Object[]{textPrefix + i, Timestamp.from(NOW.minusSeconds(i % 50).toInstant()),
+                        CHATS[i % CHATS.length], "daily"})
+                .toList();
+        jdbcTemplate.batchUpdate("INSERT INTO notifications (text, datetime, chatid, repetition) VALUES (?, ?, ?, ?)", rows);
+    }
+
+    private int sendsOf(int id) {
+        String text = jdbcTemplate.queryForObject("SELECT text FROM notifications WHERE id = ?", String.class, id);
+        Integer sends = jdbcTemplate.queryForObject("SELECT count(*) FROM outbox WHERE text = ?", Integer.class, text);
+        return sends != null ? sends : 0;
+    }
+
+    // Runs one tick of every scheduler at the same moment and returns how long they took together
+    private static long tickConcurrently(List<NotificationSchedulerService> schedulers) throws Exception {
+        List<Callable<Void>> ticks = new ArrayList<>();
+        for (NotificationSchedulerService scheduler : schedulers) {
+            ticks.add(() -> {
+                scheduler.checkAndSendNotifications();
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        runConcurrently(ticks);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private List<NotificationSchedulerService> createSchedulers(int count, MutableClock clock, UserManagementController users) {
+        List<NotificationSchedulerService> schedulers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            schedulers.add(createScheduler(clock, users));
+        }
+        return schedulers;
+    }
+
+    // One bot instance: everything the scheduler reads and writes goes to the database, the rest is mocked
+    private NotificationSchedulerService createScheduler(MutableClock clock, UserManagementController users) {
+        TelegramDailyBotProperties properties = new TelegramDailyBotProperties();
+        properties.setTimeZone(ZONE.getId());
+        properties.getScheduler().setMode(SchedulerMode.CLUSTER);
+        properties.getScheduler().setClaimBatchSize(25);
+
+        CacheInvalidationBus invalidationBus = mock(CacheInvalidationBus.class);
+        ChatService chatService = mock(ChatService.class);
+        ExclusionRuleCache exclusionRuleCache = new ExclusionRuleCache(invalidationBus);
+        NotificationScheduleIndex scheduleIndex = new NotificationScheduleIndex(notificationRepository, properties, invalidationBus);
+        OutboxService outboxService = new OutboxService(outboxRepository, jdbcTemplate, clock);
+        NotificationService notificationService = new NotificationService(notificationRepository, properties, chatService,
+                scheduleIndex, exclusionRuleCache, jdbcTemplate, outboxService, invalidationBus);
+        NotificationManagementController notifications = new NotificationManagementController(notificationService,
+                chatService, mock(ConversationStateStore.class));
+
+        ChatManagementController chats = mock(ChatManagementController.class);
+        when(chats.existsById(anyLong())).thenReturn(true);
+        return new NotificationSchedulerService(notifications, users, chats, properties,
+                mock(OutboxRelayService.class), scheduleIndex, transactionManager, exclusionRuleCache,
+                new SchedulerMetrics(), clock);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.model.UserActionState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two bot instances sharing the conversation_states table, as behind one webhook: a conversation started on one
+// instance must continue on the other, and the local caches must not hide a change made by the other instance
+// for longer than the cache allows.
+@Testcontainers(disabledWithoutDocker = true)
+class JdbcConversationStateStoreTest extends PostgresTestSupport {
+    private static final long CHAT_ID = -1001L;
+    private static final long USER_ID = 42L;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    private final MutableClock clock = new MutableClock(Instant.now(), ZoneOffset.UTC);
+    private final List<CacheInvalidationBus> buses = new ArrayList<>();
+
+    @BeforeEach
+    void clearStates() {
+        jdbcTemplate.execute("TRUNCATE conversation_states");
+    }
+
+    @AfterEach
+    void stopBuses() {
+        buses.forEach(CacheInvalidationBus::stop);
+    }
+
+    @Test
+    void sharesStatesThroughTheDatabase() {
+        JdbcConversationStateStore first = createStore(false);
+        JdbcConversationStateStore second = createStore(false);
+
+        first.put(CHAT_ID, USER_ID, UserActionState.WAITING_FOR_USERS_TO_ADD);
+        assertThat(second.get(CHAT_ID, USER_ID)).isEqualTo(UserActionState.WAITING_FOR_USERS_TO_ADD);
+
+        // Without invalidation the other instance may read its cached copy until the cache expires
+        first.put(CHAT_ID, USER_ID, UserActionState.WAITING_FOR_USERS_TO_DELETE);
+        assertThat(second.get(CHAT_ID, USER_ID)).isEqualTo(UserActionState.WAITING_FOR_USERS_TO_ADD);
+        clock.advance(Duration.ofSeconds(2));
+        assertThat(second.get(CHAT_ID, USER_ID)).isEqualTo(UserActionState.WAITING_FOR_USERS_TO_DELETE);
+
+        second.remove(CHAT_ID, USER_ID);
+        clock.advance(Duration.ofSeconds(2));
+        assertThat(first.get(CHAT_ID, USER_ID)).isNull();
+    }
+
+    @Test
+    void evictsStatesChangedByTheOtherInstance() {
+        CacheInvalidationBus firstBus = createBus();
+        CacheInvalidationBus secondBus = createBus();
+        JdbcConversationStateStore first = createStore(firstBus);
+        JdbcConversationStateStore second = createStore(secondBus);
+        awaitListening(firstBus, secondBus);
+        awaitListening(secondBus, firstBus);
+
+        first.put(CHAT_ID, USER_ID, UserActionState.WAITING_FOR_NOTIFICATION_TO_ADD);
+        assertThat(second.get(CHAT_ID, USER_ID)).isEqualTo(UserActionState.WAITING_FOR_NOTIFICATION_TO_ADD);
+
+        // The first instance keeps its own write cached for the whole conversation, until it is told otherwise
+        second.put(CHAT_ID, USER_ID, UserActionState.WAITING_FOR_NOTIFICATION_TO_EDIT);
+        assertEventually(() -> first.get(CHAT_ID, USER_ID), UserActionState.WAITING_FOR_NOTIFICATION_TO_EDIT);
+
+        second.remove(CHAT_ID, USER_ID);
+        assertEventually(() -> first.get(CHAT_ID, USER_ID), null);
+    }
+
+    private JdbcConversationStateStore createStore(boolean invalidation) {
+        return createStore(new CacheInvalidationBus(jdbcTemplate, dataSourceProperties, properties(invalidation)));
+    }
+
+    private JdbcConversationStateStore createStore(CacheInvalidationBus invalidationBus) {
+        return new JdbcConversationStateStore(jdbcTemplate, properties(invalidationBus.isEnabled()), clock, invalidationBus);
+    }
+
+    private CacheInvalidationBus createBus() {
+        CacheInvalidationBus bus = new CacheInvalidationBus(jdbcTemplate, dataSourceProperties, properties(true));
+        bus.start();
+        buses.add(bus);
+        return bus;
+    }
+
+    private static TelegramDailyBotProperties properties(boolean invalidation) {
+        TelegramDailyBotProperties properties = new TelegramDailyBotProperties();
+        properties.getConversation().setStore("jdbc");
+        properties.getConversation().setCacheSeconds(1);
+        properties.getCacheInvalidation().setEnabled(invalidation);
+        return properties;
+    }
+
+    // The listener connects in the background, so probes are published until the receiver has seen one
+    private static void awaitListening(CacheInvalidationBus sender, CacheInvalidationBus receiver) {
+        AtomicBoolean received = new AtomicBoolean();
+        receiver.subscribe("probe", key -> received.set(true));
+        assertEventually(() -> {
+            sender.publish("probe", "ping");
+            return received.get();
+        }, true);
+    }
+
+    private static <T> void assertEventually(Supplier<T> actual, T expected) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        T value = actual.get();
+        while (!Objects.equals(value, expected) && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            value = actual.get();
+        }
+        assertThat(value).isEqualTo(expected);
+    }
+}
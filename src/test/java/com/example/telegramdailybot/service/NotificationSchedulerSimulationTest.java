@@ -0,0 +1,412 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.config.TelegramDailyBotProperties;
+import com.example.telegramdailybot.controller.ChatManagementController;
+import com.example.telegramdailybot.controller.NotificationManagementController;
+import com.example.telegramdailybot.controller.UserManagementController;
+import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.model.OutboxMessage;
+import com.example.telegramdailybot.model.Repetition;
+import com.example.telegramdailybot.repository.NotificationRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+// Simulates a year of scheduler ticks for 100k notifications on a fake clock, with the notifications kept in memory
+// instead of the database. The notifications mix all fixed repetitions and cron schedules, and some exclude
+// weekends or skip days. Every fired occurrence is checked against the occurrences computed independently from
+// each notification's schedule and exclusions, so any missed or duplicate fire fails the test. The send lag and
+// tick durations are reported at the end. The size of the run can be changed with -Dsimulation.notifications
+// and -Dsimulation.days.
+class NotificationSchedulerSimulationTest {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationSchedulerSimulationTest.class);
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    private static final ZonedDateTime START = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZONE);
+    private static final Duration TICK = Duration.ofMinutes(1);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final int notificationCount = Integer.getInteger("simulation.notifications", 100_000);
+    private final int days = Integer.getInteger("simulation.days", 365);
+
+    @Test
+    void firesEveryOccurrenceExactlyOnce() {
+        MutableClock clock = new MutableClock(START.toInstant(), ZONE);
+        TelegramDailyBotProperties properties = new TelegramDailyBotProperties();
+        properties.setTimeZone(ZONE.getId());
+        CacheInvalidationBus invalidationBus = mock(CacheInvalidationBus.class, withSettings().stubOnly());
+
+        ZonedDateTime end = START.plusDays(days);
+        Map<Integer, Expectation> expectations = new HashMap<>();
+        List<Notification> notifications = createNotifications(expectations, end);
+        NotificationRepository notificationRepository = mock(NotificationRepository.class, withSettings().stubOnly());
+        when(notificationRepository.findAll()).thenReturn(notifications);
+        NotificationScheduleIndex scheduleIndex = new NotificationScheduleIndex(notificationRepository, properties, invalidationBus);
+        scheduleIndex.load();
+
+        InMemoryNotifications store = new InMemoryNotifications(notifications, scheduleIndex, expectations, clock);
+        ChatManagementController chats = mock(ChatManagementController.class, withSettings().stubOnly());
+        when(chats.existsById(anyLong())).thenReturn(true);
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        NotificationSchedulerService scheduler = new NotificationSchedulerService(store,
+                mock(UserManagementController.class, withSettings().stubOnly()), chats, properties,
+                mock(OutboxRelayService.class, withSettings().stubOnly()), scheduleIndex,
+                mock(PlatformTransactionManager.class, withSettings().stubOnly()),
+                new ExclusionRuleCache(invalidationBus), metrics, clock);
+
+        long started = System.nanoTime();
+        while (!clock.now().isAfter(end)) {
+            scheduler.checkAndSendNotifications();
+            clock.advance(TICK);
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        ZonedDateTime lastTick = clock.now().minus(TICK);
+        long expected = 0;
+        long missed = 0;
+        for (Expectation expectation : expectations.values()) {
+            long due = expectation.occurrencesUntil(lastTick);
+            expected += due;
+            missed += due - expectation.fired;
+        }
+        long duplicates = expectations.values().stream().mapToLong(e -> e.duplicates).sum();
+        long unexpected = expectations.values().stream().mapToLong(e -> e.unexpected).sum();
+
+        logger.info("Simulated {} days of {} notifications in {} ms: {} ticks, {} sends ({} expected), "
+                        + "{} missed, {} duplicate, {} unexpected fires, {} misfires",
+                days, notificationCount, elapsedMillis, metrics.getTicks(), store.sends, expected,
+                missed, duplicates, unexpected, metrics.getMisfires());
+        logger.info("Send lag p50 {} s, p99 {} s, p99.9 {} s, max {} s; tick p50 {} ms, p99 {} ms, p99.9 {} ms",
+                store.lagPercentile(50), store.lagPercentile(99), store.lagPercentile(99.9), store.maxLagSeconds,
+                metrics.getTickPercentileMillis(50), metrics.getTickPercentileMillis(99),
+                metrics.getTickPercentileMillis(99.9));
+
+        assertThat(missed).as("missed fires").isZero();
+        assertThat(duplicates).as("duplicate fires").isZero();
+        assertThat(unexpected).as("fires at unexpected times").isZero();
+        assertThat(store.sends).as("sends").isEqualTo(expected);
+        assertThat(metrics.getMisfires()).as("misfires").isZero();
+        assertThat(metrics.getDuplicateFires()).as("duplicate fires seen by the scheduler").isZero();
+        // Ticks run every minute, so no notification waits for a whole tick interval
+        assertThat(store.maxLagSeconds).as("max send lag in seconds").isLessThan(TICK.toSeconds());
+    }
+
+    // A mix of schedules starting in the first four weeks. The fixed repetitions of a day or longer start at
+    // random seconds between 6:00 and 22:00, so they fire on the same day they are due, whatever tick picks them
+    // up, and their day of the month stays at or below 28. The minutely, hourly and cron schedules fall on whole
+    // minutes, so they are due exactly on a tick. The cron schedules stay clear of the DST switch at night.
+    private List<Notification> createNotifications(Map<Integer, Expectation> expectations, ZonedDateTime end) {
+        Random random = new Random(42);
+        List<Notification> notifications = new ArrayList<>(notificationCount);
+        for (int id = 1; id <= notificationCount; id++) {
+            ZonedDateTime day = START.plusDays(random.nextInt(28));
+            int bucket = random.nextInt(10_000);
+            String repetition;
+            Schedule schedule;
+            if (bucket < 2) {
+                ZonedDateTime start = day.withHour(random.nextInt(24)).withMinute(random.nextInt(60));
+                repetition = Repetition.MINUTELY.toString();
+                schedule = (index, previous) -> start.plusMinutes(5 * index);
+            } else if (bucket < 50) {
+                ZonedDateTime start = day.withHour(random.nextInt(24)).withMinute(random.nextInt(60));
+                repetition = Repetition.HOURLY.toString();
+                schedule = (index, previous) -> start.plusHours(index);
+            } else if (bucket < 150) {
+                int hour = 6 + random.nextInt(16);
+                int minute = random.nextInt(60);
+                repetition = "cron: " + minute + " " + hour + " * * MON-FRI";
+                schedule = weekdaysAt(day.withHour(hour).withMinute(minute));
+            } else if (bucket < 250) {
+                int firstHour = 6 + random.nextInt(13);
+                repetition = "cron: */15 " + firstHour + "-" + (firstHour + 3) + " * * *";
+                schedule = quarterHoursBetween(day.withHour(firstHour), firstHour, firstHour + 3);
+            } else {
+                Repetition fixed = bucket < 750 ? Repetition.ONCE
+                        : bucket < 1750 ? Repetition.DAILY
+                        : bucket < 4750 ? Repetition.WEEKLY
+                        : bucket < 8750 ? Repetition.MONTHLY
+                        : Repetition.YEARLY;
+                ZonedDateTime start = day.withHour(6 + random.nextInt(16))
+                        .withMinute(random.nextInt(60))
+                        .withSecond(random.nextInt(60));
+                repetition = fixed.toString();
+                schedule = fixedSchedule(fixed, start);
+            }
+
+            Notification notification = new Notification();
+            notification.setId(id);
+            notification.setChatid(-1000L - id % 500);
+            notification.setText("Notification " + id);
+            notification.setDatetime(schedule.occurrence(0, null));
+            notification.setRepetition(repetition);
+            Predicate<LocalDate> excluded = addExclusions(notification, random);
+            notifications.add(notification);
+            expectations.put(id, new Expectation(schedule, excluded, end));
+        }
+        return notifications;
+    }
+
+    // Excludes weekends from 15%, a repeating skip day from 10% and both from 5% of the notifications, and returns
+    // the excluded days worked out on calendar dates
+    private static Predicate<LocalDate> addExclusions(Notification notification, Random random) {
+        int bucket = random.nextInt(100);
+        if (bucket >= 30) {
+            return date -> false;
+        }
+        boolean weekends = bucket < 15 || bucket >= 25;
+        boolean skipDay = bucket >= 15;
+        LocalDate anchor = START.toLocalDate().plusDays(random.nextInt(28));
+        // 0 skips the anchor day only
+        int frequency = random.nextInt(11);
+
+        ObjectNode datetimexcluded = MAPPER.createObjectNode();
+        datetimexcluded.put("weekends", weekends);
+        if (skipDay) {
+            datetimexcluded.putArray("skip_days").addObject()
+                    .put("day", anchor.toString())
+                    .put("frequency", frequency);
+        }
+        notification.setDatetimexcluded(datetimexcluded);
+        return date -> {
+            if (weekends && (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY)) {
+                return true;
+            }
+            if (!skipDay || date.isBefore(anchor)) {
+                return false;
+            }
+            long daysSinceAnchor = ChronoUnit.DAYS.between(anchor, date);
+            return daysSinceAnchor == 0 || (frequency > 0 && daysSinceAnchor % frequency == 0);
+        };
+    }
+
+    private static Schedule fixedSchedule(Repetition repetition, ZonedDateTime start) {
+        return (index, previous) -> switch (repetition) {
+            case ONCE -> index == 0 ? start : null;
+            case DAILY -> start.plusDays(index);
+            case WEEKLY -> start.plusWeeks(index);
+            case MONTHLY -> start.plusMonths(index);
+            case YEARLY -> start.plusYears(index);
+            default -> throw new IllegalStateException("Not a fixed schedule: " + repetition);
+        };
+    }
+
+    // "cron: M H * * MON-FRI", from the given day on
+    private static Schedule weekdaysAt(ZonedDateTime first) {
+        return (index, previous) -> {
+            ZonedDateTime next = previous == null ? first : previous.plusDays(1);
+            while (next.getDayOfWeek() == DayOfWeek.SATURDAY || next.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                next = next.plusDays(1);
+            }
+            return next;
+        };
+    }
+
+    // "cron: */15 H1-H2 * * *", from the given time on
+    private static Schedule quarterHoursBetween(ZonedDateTime first, int firstHour, int lastHour) {
+        return (index, previous) -> {
+            if (previous == null) {
+                return first;
+            }
+            ZonedDateTime next = previous.plusMinutes(15);
+            return next.getHour() <= lastHour ? next : previous.plusDays(1).withHour(firstHour).withMinute(0);
+        };
+    }
+
+    // The occurrences of a schedule, before any exclusions. Returns the occurrence with the given index, which
+    // follows "previous", or null once there are no more.
+    @FunctionalInterface
+    private interface Schedule {
+        ZonedDateTime occurrence(long index, ZonedDateTime previous);
+    }
+
+    // Walks through the occurrences of a schedule that are not excluded, up to the end of the simulation
+    private static final class Cursor {
+        private final Schedule schedule;
+        private final Predicate<LocalDate> excluded;
+        private final ZonedDateTime end;
+        private long index;
+        private ZonedDateTime previous;
+
+        Cursor(Schedule schedule, Predicate<LocalDate> excluded, ZonedDateTime end) {
+            this.schedule = schedule;
+            this.excluded = excluded;
+            this.end = end;
+        }
+
+        ZonedDateTime next() {
+            while (true) {
+                ZonedDateTime occurrence = schedule.occurrence(index++, previous);
+                if (occurrence == null || occurrence.isAfter(end)) {
+                    return null;
+                }
+                previous = occurrence;
+                if (!excluded.test(occurrence.toLocalDate())) {
+                    return occurrence;
+                }
+            }
+        }
+    }
+
+    // The expected fires of one notification, and how many of them were fired so far
+    private static final class Expectation {
+        private final Schedule schedule;
+        private final Predicate<LocalDate> excluded;
+        private final ZonedDateTime end;
+        private final Cursor cursor;
+        private ZonedDateTime next;
+        private ZonedDateTime lastFired;
+        private long fired;
+        private long duplicates;
+        private long unexpected;
+
+        Expectation(Schedule schedule, Predicate<LocalDate> excluded, ZonedDateTime end) {
+            this.schedule = schedule;
+            this.excluded = excluded;
+            this.end = end;
+            this.cursor = new Cursor(schedule, excluded, end);
+            this.next = cursor.next();
+        }
+
+        void recordFire(ZonedDateTime dueAt) {
+            if (next != null && next.toInstant().equals(dueAt.toInstant())) {
+                fired++;
+                lastFired = next;
+                next = cursor.next();
+            } else if (lastFired != null && lastFired.toInstant().equals(dueAt.toInstant())) {
+                duplicates++;
+            } else {
+                unexpected++;
+            }
+        }
+
+        long occurrencesUntil(ZonedDateTime until) {
+            Cursor occurrences = new Cursor(schedule, excluded, end);
+            long count = 0;
+            ZonedDateTime occurrence;
+            while ((occurrence = occurrences.next()) != null && !occurrence.isAfter(until)) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    // Stands in for the notifications table: keeps the notifications in a map and applies the scheduler's
+    // changes to it and to the schedule index, like NotificationService does. The queued messages are checked
+    // against the expected occurrences instead of being written to the outbox.
+    private static final class InMemoryNotifications extends NotificationManagementController {
+        private static final Comparator<Notification> BY_DATETIME_AND_ID =
+                Comparator.comparing(Notification::getDatetime).thenComparing(Notification::getId);
+        private final Map<Integer, Notification> notifications = new HashMap<>();
+        private final NotificationScheduleIndex scheduleIndex;
+        private final Map<Integer, Expectation> expectations;
+        private final Map<String, Integer> idsByText = new HashMap<>();
+        private final MutableClock clock;
+        // Send lag in seconds, the last bucket collecting everything beyond
+        private final long[] lagHistogram = new long[3601];
+        private long maxLagSeconds;
+        private long sends;
+
+        InMemoryNotifications(List<Notification> notifications, NotificationScheduleIndex scheduleIndex,
+                              Map<Integer, Expectation> expectations, MutableClock clock) {
+            super(null, null, null);
+            notifications.forEach(notification -> {
+                this.notifications.put(notification.getId(), notification);
+                idsByText.put(notification.getText(), notification.getId());
+            });
+            this.scheduleIndex = scheduleIndex;
+            this.expectations = expectations;
+            this.clock = clock;
+        }
+
+        @Override
+        public List<Notification> findAllById(Iterable<Integer> ids) {
+            List<Notification> found = new ArrayList<>();
+            for (Integer id : ids) {
+                Notification notification = notifications.get(id);
+                if (notification != null) {
+                    found.add(notification);
+                }
+            }
+            return found;
+        }
+
+        // The database and cluster modes query the notifications instead of the schedule index. They scan the
+        // whole map, which is fine for small runs but not for the default size.
+        @Override
+        public Stream<Notification> streamDueWindow(ZonedDateTime from, ZonedDateTime to) {
+            return notifications.values().stream()
+                    .filter(notification -> notification.getDatetime().isAfter(from) && !notification.getDatetime().isAfter(to))
+                    .sorted(BY_DATETIME_AND_ID)
+                    .toList()
+                    .stream();
+        }
+
+        @Override
+        public List<Notification> claimDueWindow(ZonedDateTime afterDatetime, int afterId, ZonedDateTime to, int limit) {
+            return notifications.values().stream()
+                    .filter(notification -> !notification.getDatetime().isAfter(to))
+                    .filter(notification -> notification.getDatetime().isAfter(afterDatetime)
+                            || (notification.getDatetime().isEqual(afterDatetime) && notification.getId() > afterId))
+                    .sorted(BY_DATETIME_AND_ID)
+                    .limit(limit)
+                    .toList();
+        }
+
+        @Override
+        public void applyScheduleChanges(Map<Integer, ZonedDateTime> reschedules, Collection<Integer> deletions,
+                                         List<OutboxMessage> messages) {
+            for (OutboxMessage message : messages) {
+                // Delivery itself is outside the simulation, so a message counts as sent when it is queued
+                long lagSeconds = Duration.between(message.getDueAt(), clock.now()).toSeconds();
+                lagHistogram[(int) Math.min(lagSeconds, lagHistogram.length - 1)]++;
+                maxLagSeconds = Math.max(maxLagSeconds, lagSeconds);
+                sends++;
+                expectations.get(idsByText.get(message.getText())).recordFire(message.getDueAt());
+            }
+            reschedules.forEach((id, datetime) -> {
+                notifications.get(id).setDatetime(datetime);
+                scheduleIndex.schedule(id, datetime);
+            });
+            deletions.forEach(id -> {
+                notifications.remove(id);
+                scheduleIndex.remove(id);
+            });
+        }
+
+        long lagPercentile(double percentile) {
+            long target = (long) Math.ceil(percentile / 100 * sends);
+            long seen = 0;
+            for (int seconds = 0; seconds < lagHistogram.length; seconds++) {
+                seen += lagHistogram[seconds];
+                if (seen >= target && seen > 0) {
+                    return seconds;
+                }
+            }
+            return 0;
+        }
+    }
+}
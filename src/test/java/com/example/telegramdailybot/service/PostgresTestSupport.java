@@ -0,0 +1,79 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.Notification;
+import com.example.telegramdailybot.repository.NotificationRepository;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Base of the tests that need a real PostgreSQL, e.g. for FOR UPDATE SKIP LOCKED, data-modifying CTEs or
+// LISTEN/NOTIFY. One container is shared by all of them and created from schema.sql. Only the JPA repositories,
+// JdbcTemplate and the transaction manager are started; the services under test are created by the tests
+// themselves. Tests run without a surrounding transaction, so that they can commit from several threads.
+// Subclasses are annotated with @Testcontainers(disabledWithoutDocker = true), so they are skipped without Docker.
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ContextConfiguration(classes = PostgresTestSupport.RepositoryConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+abstract class PostgresTestSupport {
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:14-alpine")
+            .withInitScript("schema.sql");
+
+    static {
+        POSTGRES.start();
+    }
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+        registry.add("spring.datasource.username", POSTGRES::getUsername);
+        registry.add("spring.datasource.password", POSTGRES::getPassword);
+        // Enough for the concurrent tests, whose threads may each hold an outer and an inner transaction
+        registry.add("spring.datasource.hikari.maximum-pool-size", () -> 20);
+    }
+
+    // Starts all tasks at the same moment and waits for them, rethrowing the first failure
+    static <T> List<T> runConcurrently(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Configuration
+    @EntityScan(basePackageClasses = Notification.class)
+    @EnableJpaRepositories(basePackageClasses = NotificationRepository.class)
+    static class RepositoryConfiguration {
+    }
+}
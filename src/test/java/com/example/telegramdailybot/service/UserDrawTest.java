@@ -0,0 +1,174 @@
+package com.example.telegramdailybot.service;
+
+import com.example.telegramdailybot.model.User;
+import com.example.telegramdailybot.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+// Concurrent /next draws of the same chat. Each instance serializes its own draws with a lock, so draws of
+// different instances are only kept apart by the version check in UserRepository.drawWinner. The draws are
+// made both on their own and, like the scheduler makes them, within an outer transaction.
+@Testcontainers(disabledWithoutDocker = true)
+class UserDrawTest extends PostgresTestSupport {
+    private static final long CHAT_ID = -1001L;
+    private static final int USERS = 10;
+    private static final int ROUNDS = 20;
+    private static final int THREADS = 8;
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void createUsers() {
+        jdbcTemplate.execute("TRUNCATE notifications, outbox, users, chats");
+        jdbcTemplate.update("INSERT INTO chats (telegramchatid, name) VALUES (?, ?)", CHAT_ID, "Chat");
+        for (int i = 0; i < USERS; i++) {
+            jdbcTemplate.update("INSERT INTO users (name, username, chatid, haswon) VALUES (?, ?, ?, false)",
+                    "User " + i, "user" + i, CHAT_ID);
+        }
+    }
+
+    // Every round draws each user exactly once, so after ROUNDS full rounds everybody has won ROUNDS times,
+    // no matter how the draws of the two instances interleave
+    @Test
+    void drawsEveryUserOncePerRound() throws Exception {
+        drawConcurrently(false);
+    }
+
+    // The scheduler draws within the transaction of its tick or batch, which must not change the outcome
+    @Test
+    void drawsEveryUserOncePerRoundWithinOuterTransactions() throws Exception {
+        drawConcurrently(true);
+    }
+
+    // A draw is committed on its own, before the transaction it was made in, and stays even if that rolls back
+    @Test
+    void commitsDrawIndependentlyOfOuterTransaction() throws Exception {
+        UserService userService = createUserService();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            User winner = new TransactionTemplate(transactionManager).execute(status -> {
+                User drawn = userService.findWinner(CHAT_ID);
+                Future<Boolean> seenByOthers = executor.submit(() -> jdbcTemplate.queryForObject(
+                        "SELECT haswon FROM users WHERE id = ?", Boolean.class, drawn.getId()));
+                try {
+                    assertThat(seenByOthers.get(10, TimeUnit.SECONDS)).isTrue();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                status.setRollbackOnly();
+                return drawn;
+            });
+            assertThat(userRepository.findById(winner.getId())).hasValueSatisfying(user -> assertThat(user.isHaswon()).isTrue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // A draw that picked the same user as a concurrent draw waits for its row lock. Once the other draw has
+    // committed, the version no longer matches, and the draw returns nothing instead of a second winner.
+    @Test
+    void drawLosingToConcurrentDrawReturnsNothing() throws Exception {
+        jdbcTemplate.update("UPDATE users SET haswon = true WHERE name <> 'User 0'");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        CountDownLatch drawn = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Optional<User>> first = executor.submit(() -> transactionTemplate.execute(status -> {
+                Optional<User> winner = userRepository.drawWinner(CHAT_ID);
+                drawn.countDown();
+                try {
+                    commit.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return winner;
+            }));
+            assertThat(drawn.await(10, TimeUnit.SECONDS)).isTrue();
+
+            Future<Optional<User>> second = executor.submit(() -> transactionTemplate.execute(status -> userRepository.drawWinner(CHAT_ID)));
+            awaitLockWait();
+            commit.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).hasValueSatisfying(user -> assertThat(user.getName()).isEqualTo("User 0"));
+            assertThat(second.get(10, TimeUnit.SECONDS)).isEmpty();
+        } finally {
+            commit.countDown();
+            executor.shutdownNow();
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT version FROM users WHERE name = 'User 0'", Integer.class)).isEqualTo(1);
+    }
+
+    private void drawConcurrently(boolean outerTransaction) throws Exception {
+        List<UserService> instances = List.of(createUserService(), createUserService());
+        TransactionTemplate outer = new TransactionTemplate(transactionManager);
+        int drawsPerThread = USERS * ROUNDS / THREADS;
+        List<Callable<List<Integer>>> threads = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            UserService userService = instances.get(thread % instances.size());
+            threads.add(() -> {
+                List<Integer> winners = new ArrayList<>();
+                for (int i = 0; i < drawsPerThread; i++) {
+                    User winner = outerTransaction
+                            ? outer.execute(status -> userService.findWinner(CHAT_ID))
+                            : userService.findWinner(CHAT_ID);
+                    winners.add(winner.getId());
+                }
+                return winners;
+            });
+        }
+
+        Map<Integer, Integer> wins = new HashMap<>();
+        for (List<Integer> winners : runConcurrently(threads)) {
+            winners.forEach(id -> wins.merge(id, 1, Integer::sum));
+        }
+
+        assertThat(wins).hasSize(USERS);
+        assertThat(wins.values()).containsOnly(ROUNDS);
+        assertThat(userRepository.findByChatid(CHAT_ID)).allMatch(User::isHaswon);
+    }
+
+    private UserService createUserService() {
+        return new UserService(userRepository, mock(ChatService.class), transactionManager);
+    }
+
+    // Waits until a backend is blocked on a row lock
+    private void awaitLockWait() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            Integer waiting = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock' AND datname = current_database()",
+                    Integer.class);
+            if (waiting != null && waiting > 0) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("The second draw never waited for the first one");
+    }
+}